@@ -12,6 +12,7 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -19,25 +20,29 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 
 import ca.cmpt276.flame.model.BGMusicPlayer;
 import ca.cmpt276.flame.model.Child;
 import ca.cmpt276.flame.model.ChildrenManager;
+import ca.cmpt276.flame.model.ProfileImageImporter;
 
 /**
  * ChildEditActivity:
  * Add a new child
  * Rename an existing child
  * Delete a child
+ * A picked image is imported in the background; it is only moved onto the child when saved.
  */
 public class ChildEditActivity extends AppCompatActivity {
     private static final String EXTRA_CHILD_ID = "EXTRA_CHILD_ID";
     private static final int REQUEST_CODE_CAMERA = 0;
     private static final int REQUEST_CODE_GALLERY = 1;
     private Bitmap childImage = null;
-    private Boolean imageNeedsSaving = false;
+    // the imported image waiting to be saved, or null if the image has not been changed
+    private File stagedImage = null;
+    private ProfileImageImporter imageImporter = null;
     private Child clickedChild;
     private String newName;
     private TextView inputName;
@@ -129,7 +134,7 @@ public class ChildEditActivity extends AppCompatActivity {
         ImageButton inputImageBtn = findViewById(R.id.childEdit_changeImageBtn);
 
         inputImageBtn.setOnClickListener(v ->  {
-            if(imageNeedsSaving || (clickedChild != null && clickedChild.hasImage())) {
+            if(stagedImage != null || (clickedChild != null && clickedChild.hasImage())) {
                 showDialogBoxAddRemoveImage();
             } else {
                 showDialogBoxGalleryOrCamera();
@@ -145,9 +150,9 @@ public class ChildEditActivity extends AppCompatActivity {
                 }))
                 .setNegativeButton(R.string.remove, ((dialogInterface, i) -> {
                     if(clickedChild != null) {
-                        childrenManager.removeChildImage(clickedChild, this);
+                        childrenManager.removeChildImage(clickedChild);
                     }
-                    imageNeedsSaving = false;
+                    stagedImage = null;
                     fillChildImage();
                 })).show();
     }
@@ -182,64 +187,78 @@ public class ChildEditActivity extends AppCompatActivity {
             return;
         }
 
-        Bitmap fullSize = null;
-        
+        // a newer pick replaces an import that is still running
+        if (imageImporter != null) {
+            imageImporter.cancel();
+            imageImporter = null;
+        }
+
         switch (requestCode) {
             case REQUEST_CODE_CAMERA:
                 Bundle extras = imageReturnedIntent.getExtras();
-                fullSize = (Bitmap) extras.get("data");
+                Bitmap photo = (Bitmap) extras.get("data");
+                if (photo != null) {
+                    imageImporter = ProfileImageImporter.importImage(this, photo, new ImageImportListener());
+                }
                 break;
             case REQUEST_CODE_GALLERY:
                 Uri selectedImage = imageReturnedIntent.getData();
-                try {
-                    fullSize = MediaStore.Images.Media.getBitmap(this.getContentResolver(), selectedImage);
-                } catch (IOException e) {
-                    Toast.makeText(this, getResources().getText(R.string.something_wrong_try_again), Toast.LENGTH_SHORT).show();
+                if (selectedImage != null) {
+                    imageImporter = ProfileImageImporter.importImage(this, selectedImage, new ImageImportListener());
                 }
                 break;
         }
 
-        if(fullSize != null) {
-            childImage = cropAndDownsizeImage(fullSize);
-            imageNeedsSaving = true;
-
-            ImageView childImageView = findViewById(R.id.childEdit_child_image_view);
-            childImageView.setImageBitmap(childImage);
-        }
+        // also hides the progress of a cancelled import if nothing replaced it
+        showImportProgress(imageImporter != null);
     }
 
-    private Bitmap cropAndDownsizeImage(Bitmap fullSize) {
-        int size = Math.min(fullSize.getWidth(), fullSize.getHeight());
-        int offsetX = 0;
-        int offsetY = 0;
+    private void showImportProgress(boolean isImporting) {
+        ProgressBar progressBar = findViewById(R.id.childEdit_progressImage);
+        progressBar.setProgress(0);
+        progressBar.setVisibility(isImporting ? View.VISIBLE : View.GONE);
 
-        if(fullSize.getWidth() > fullSize.getHeight()) {
-            offsetX = (fullSize.getWidth() - size) / 2;
-        } else {
-            offsetY = (fullSize.getHeight() - size) / 2;
+        // the image can only be saved once it has been imported
+        Button saveBtn = findViewById(R.id.childEdit_btnSave);
+        saveBtn.setEnabled(!isImporting);
+    }
+
+    /**
+     * ImageImportListener shows the progress and result of importing a picked image
+     */
+    private class ImageImportListener implements ProfileImageImporter.Listener {
+        @Override
+        public void onProgress(int percent) {
+            ProgressBar progressBar = findViewById(R.id.childEdit_progressImage);
+            progressBar.setProgress(percent);
         }
 
-        Bitmap cropped = Bitmap.createBitmap(fullSize, offsetX, offsetY, size, size);
+        @Override
+        public void onImported(File importedImage, Bitmap preview) {
+            imageImporter = null;
+            stagedImage = importedImage;
+            childImage = preview;
+            showImportProgress(false);
 
-        // down size
-        final int IMAGE_DIM = 150;
-        return Bitmap.createScaledBitmap(cropped, IMAGE_DIM, IMAGE_DIM, false);
+            ImageView childImageView = findViewById(R.id.childEdit_child_image_view);
+            childImageView.setImageBitmap(childImage);
+        }
+
+        @Override
+        public void onFailed() {
+            imageImporter = null;
+            showImportProgress(false);
+            Toast.makeText(ChildEditActivity.this, getResources().getText(R.string.something_wrong_try_again), Toast.LENGTH_SHORT).show();
+        }
     }
 
     private void saveChildImage() {
-        if(!imageNeedsSaving) {
+        if(stagedImage == null) {
             return;
         }
 
-        final int IMAGE_QUALITY = 100;
-
         try {
-            FileOutputStream fos = new FileOutputStream(clickedChild.getImageFile(this));
-            // Use the compress method on the BitMap object to write image to the OutputStream
-            childImage.compress(Bitmap.CompressFormat.JPEG, IMAGE_QUALITY, fos);
-            fos.close();
-
-            childrenManager.setChildHasImage(clickedChild);
+            childrenManager.setChildImage(clickedChild, stagedImage);
         } catch (IOException e) {
             Toast.makeText(this, getResources().getText(R.string.something_wrong_try_again), Toast.LENGTH_SHORT).show();
         }
@@ -258,7 +277,7 @@ public class ChildEditActivity extends AppCompatActivity {
                     .setTitle(R.string.confirm)
                     .setMessage(R.string.childEditActivity_confirmDeleteMsg)
                     .setPositiveButton(R.string.delete, ((dialogInterface, i) -> {
-                        childrenManager.removeChild(clickedChild, this);
+                        childrenManager.removeChild(clickedChild);
                         finish();
                     }))
                     .setNegativeButton(R.string.cancel, null).show();
@@ -271,6 +290,14 @@ public class ChildEditActivity extends AppCompatActivity {
         BGMusicPlayer.resumeBgMusic();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (imageImporter != null) {
+            imageImporter.cancel();
+        }
+    }
+
     protected static Intent makeIntent(Context context, Child child) {
         long childId = Child.NONE;
         if(child != null) {
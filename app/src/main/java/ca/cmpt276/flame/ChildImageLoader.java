@@ -0,0 +1,146 @@
+package ca.cmpt276.flame;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ca.cmpt276.flame.model.Child;
+import ca.cmpt276.flame.model.ChildImageCache;
+
+/**
+ * ChildImageLoader shows child profile images in list rows without reading them from
+ * disk on the main thread. A cached image is shown straight away; otherwise the default
+ * image is shown as a placeholder while the image is decoded on a small background pool.
+ * Rows that ask for the same image share one decode, and when a row is recycled for
+ * another child before its image is ready, the old request is dropped (and cancelled if
+ * no other row is waiting for it). Images are decoded from the saved size nearest the
+ * view's size, so small rows never read the full image. Must be called from the main thread.
+ */
+public class ChildImageLoader {
+    private static final int NUM_DECODE_THREADS = 2;
+    private static final ExecutorService DECODE_EXECUTOR = Executors.newFixedThreadPool(NUM_DECODE_THREADS);
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final Map<String, PendingDecode> PENDING_DECODES = new HashMap<>();
+
+    private ChildImageLoader() {
+        // disallow instances of ChildImageLoader
+    }
+
+    // shows the child's image in the view; a null child shows the default image
+    public static void load(ImageView imageView, Child child) {
+        load(imageView, child, getViewSize(imageView));
+    }
+
+    // as above, but with the size (in pixels) the image will be shown at given explicitly
+    public static void load(ImageView imageView, Child child, int requestedSize) {
+        ChildImageCache cache = ChildImageCache.getInstance();
+        Context context = imageView.getContext().getApplicationContext();
+        int imageSize = Child.getNearestImageSize(requestedSize);
+        String key = child == null ? null : cache.getImageKey(child, imageSize);
+
+        cancel(imageView, key);
+
+        Bitmap cached = child == null
+                ? cache.getDefaultBitmap(context, imageSize) : cache.getCachedChildBitmap(child, imageSize);
+        if(cached != null) {
+            imageView.setTag(null);
+            imageView.setImageBitmap(cached);
+            return;
+        }
+
+        imageView.setTag(key);
+        imageView.setImageBitmap(cache.getDefaultBitmap(context, imageSize));
+
+        PendingDecode pending = PENDING_DECODES.get(key);
+        if(pending == null) {
+            pending = new PendingDecode();
+            PENDING_DECODES.put(key, pending);
+            pending.future = DECODE_EXECUTOR.submit(() -> {
+                Bitmap bitmap = cache.getChildBitmap(child, context, imageSize);
+                MAIN_HANDLER.post(() -> deliver(key, bitmap));
+            });
+        }
+        pending.imageViews.add(new WeakReference<>(imageView));
+    }
+
+    // empties the view, dropping any image it was still waiting for
+    public static void clear(ImageView imageView) {
+        cancel(imageView, null);
+        imageView.setTag(null);
+        imageView.setImageDrawable(null);
+    }
+
+    // rows give their image views a fixed size, which is known before the view is laid out
+    private static int getViewSize(ImageView imageView) {
+        ViewGroup.LayoutParams layoutParams = imageView.getLayoutParams();
+        if(layoutParams == null || layoutParams.width <= 0) {
+            return Child.IMAGE_SIZE;
+        }
+
+        return layoutParams.width;
+    }
+
+    // the view no longer wants the image it was waiting for (unless it is asking for that same image again)
+    private static void cancel(ImageView imageView, String newKey) {
+        Object oldKey = imageView.getTag();
+        if(oldKey == null || oldKey.equals(newKey)) {
+            return;
+        }
+
+        PendingDecode pending = PENDING_DECODES.get(oldKey);
+        if(pending == null) {
+            return;
+        }
+
+        Iterator<WeakReference<ImageView>> itr = pending.imageViews.iterator();
+        while(itr.hasNext()) {
+            ImageView waitingView = itr.next().get();
+            if(waitingView == null || waitingView == imageView) {
+                itr.remove();
+            }
+        }
+
+        if(pending.imageViews.isEmpty()) {
+            pending.future.cancel(false);
+            PENDING_DECODES.remove(oldKey);
+        }
+    }
+
+    private static void deliver(String key, Bitmap bitmap) {
+        PendingDecode pending = PENDING_DECODES.remove(key);
+        if(pending == null) {
+            return;
+        }
+
+        for(WeakReference<ImageView> imageViewRef : pending.imageViews) {
+            ImageView imageView = imageViewRef.get();
+
+            // skip views that have been recycled for another child in the meantime
+            if(imageView != null && key.equals(imageView.getTag())) {
+                imageView.setTag(null);
+                imageView.setImageBitmap(bitmap);
+            }
+        }
+    }
+
+    /**
+     * PendingDecode is a decode that has been started, along with the views waiting for it
+     */
+    private static class PendingDecode {
+        private final List<WeakReference<ImageView>> imageViews = new ArrayList<>();
+        private Future<?> future;
+    }
+}
@@ -7,43 +7,64 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
 import ca.cmpt276.flame.model.BGMusicPlayer;
 import ca.cmpt276.flame.model.Child;
 import ca.cmpt276.flame.model.ChildrenManager;
+import ca.cmpt276.flame.model.ModelEventListener;
 
 /**
  * ChildrenActivity: allow users to view a list of children
  * Users may click 'add' button on the top right to add a new child
  * Users may click an existing child to rename or delete the child
+ * Whenever the model changes, the new rows are compared with the old ones in the
+ * background (DiffUtil) and only the rows that changed are updated.
  */
 public class ChildrenActivity extends AppCompatActivity {
+    private static final DiffUtil.ItemCallback<ChildRow> CHILD_ROW_DIFF = new DiffUtil.ItemCallback<ChildRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ChildRow oldRow, @NonNull ChildRow newRow) {
+            return oldRow.child.getId() == newRow.child.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ChildRow oldRow, @NonNull ChildRow newRow) {
+            return oldRow.name.equals(newRow.name) && Objects.equals(oldRow.imageHash, newRow.imageHash);
+        }
+    };
+
     private final ChildrenManager childrenManager = ChildrenManager.getInstance();
-    private final ArrayList<Child> childList = new ArrayList<>();
+    private final ModelEventListener modelEventListener = event -> submitChildRows();
+    private ChildListAdapter adapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_children);
         setupToolbar();
+        setupChildrenView();
+        childrenManager.addListener(modelEventListener);
     }
 
     @Override
-    protected void onStart() {
-        super.onStart();
-        setupChildrenView();
-        setupClickCallBack();
+    protected void onDestroy() {
+        super.onDestroy();
+        childrenManager.removeListener(modelEventListener);
     }
 
     @Override
@@ -64,30 +85,21 @@ public class ChildrenActivity extends AppCompatActivity {
     }
 
     private void setupChildrenView() {
-        ListView list = findViewById(R.id.children_listView);
-        childList.clear();
-        for (Child child : childrenManager) {
-            childList.add(child);
-        }
+        RecyclerView recyclerView = findViewById(R.id.children_recyclerView);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
 
-        ArrayAdapter<Child> adapter = new ChildListAdapter();
-        list.setAdapter(adapter);
+        adapter = new ChildListAdapter();
+        recyclerView.setAdapter(adapter);
+        submitChildRows();
     }
 
-
-    //setup register click callback for list view
-    private void setupClickCallBack() {
-        ListView list = findViewById(R.id.children_listView);
-        list.setOnItemClickListener((parent, view, position, id) -> {
-            ArrayList<Child> children = new ArrayList<>();
-            for (Child child : childrenManager) {
-                children.add(child);
-            }
-            //passing Child information to ChildEditActivity
-            Child clickedChild = children.get(position);
-            Intent intent = ChildEditActivity.makeIntent(ChildrenActivity.this, clickedChild);
-            startActivity(intent);
-        });
+    private void submitChildRows() {
+        List<ChildRow> rows = new ArrayList<>();
+        for (Child child : childrenManager) {
+            rows.add(new ChildRow(child));
+        }
+        adapter.submitList(rows);
     }
 
     private void setupToolbar() {
@@ -107,26 +119,69 @@ public class ChildrenActivity extends AppCompatActivity {
         return new Intent(context, ChildrenActivity.class);
     }
 
-    private class ChildListAdapter extends ArrayAdapter<Child> {
+    /**
+     * ChildRow is what a row shows, copied from the child so rows can be compared off the main thread
+     */
+    private static class ChildRow {
+        private final Child child;
+        private final String name;
+        private final String imageHash;
+
+        ChildRow(Child child) {
+            this.child = child;
+            this.name = child.getName();
+            this.imageHash = child.getImageHash();
+        }
+    }
+
+    private class ChildListAdapter extends ListAdapter<ChildRow, ChildViewHolder> {
         ChildListAdapter() {
-            super(ChildrenActivity.this, R.layout.list_view_children, childList);
+            super(CHILD_ROW_DIFF);
+            setHasStableIds(true);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return getItem(position).child.getId();
         }
 
         @NonNull
         @Override
-        public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-            View itemView = convertView;
-            if (itemView == null) {
-                itemView = getLayoutInflater().inflate(R.layout.list_view_children, parent, false);
-            }
-            Child clickedChild = childList.get(position);
-            TextView txtChildName = itemView.findViewById(R.id.children_childName);
-            ImageView imagePortrait = itemView.findViewById(R.id.children_childImage);
-
-            txtChildName.setText(clickedChild.getName());
-            imagePortrait.setImageBitmap(clickedChild.getImageBitmap(ChildrenActivity.this));
-            return itemView;
+        public ChildViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View itemView = getLayoutInflater().inflate(R.layout.list_view_children, parent, false);
+            ChildViewHolder holder = new ChildViewHolder(itemView);
+
+            //passing Child information to ChildEditActivity
+            itemView.setOnClickListener(v -> {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    Child clickedChild = getItem(position).child;
+                    startActivity(ChildEditActivity.makeIntent(ChildrenActivity.this, clickedChild));
+                }
+            });
+
+            return holder;
         }
 
+        @Override
+        public void onBindViewHolder(@NonNull ChildViewHolder holder, int position) {
+            ChildRow row = getItem(position);
+            holder.txtChildName.setText(row.name);
+            ChildImageLoader.load(holder.imagePortrait, row.child);
+        }
+    }
+
+    /**
+     * ChildViewHolder holds the views of a row, so they are only looked up once
+     */
+    private static class ChildViewHolder extends RecyclerView.ViewHolder {
+        private final TextView txtChildName;
+        private final ImageView imagePortrait;
+
+        ChildViewHolder(@NonNull View itemView) {
+            super(itemView);
+            txtChildName = itemView.findViewById(R.id.children_childName);
+            imagePortrait = itemView.findViewById(R.id.children_childImage);
+        }
     }
 }
\ No newline at end of file
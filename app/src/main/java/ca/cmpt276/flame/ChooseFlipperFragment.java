@@ -93,7 +93,7 @@ public class ChooseFlipperFragment extends Fragment {
         @Override
         public void onBindViewHolder(@NonNull ViewHolder vHolder, int position) {
             vHolder.childObj = childList.get(position);
-            vHolder.childImage.setImageBitmap(vHolder.childObj.getImageBitmap(context));
+            ChildImageLoader.load(vHolder.childImage, vHolder.childObj);
             vHolder.childName.setText(vHolder.childObj.getName());
             vHolder.childOrderInQ.setText(context.getString(R.string.child_pos_in_queue, position + 1));
         }
@@ -1,10 +1,7 @@
 package ca.cmpt276.flame;
 
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Build;
 import android.os.Bundle;
 import android.text.InputFilter;
 import android.util.DisplayMetrics;
@@ -36,7 +33,6 @@ public class ChooseTimeActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_choose_time);
 
-        createNotificationChannel();
         setUpTimeValueTxt();
         setupToolbar();
         createTimerOptions();
@@ -112,21 +108,6 @@ public class ChooseTimeActivity extends AppCompatActivity {
         group.setScaleY(getScreenSizeInInches() / SCREEN_SIZE_BASE);
     }
 
-    // inspired by code from: https://developer.android.com/training/notify-user/channels
-    private void createNotificationChannel() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            int importance = NotificationManager.IMPORTANCE_HIGH;
-            String name = getString(R.string.timer_notification_channel_name);
-            String description = getString(R.string.timer_notification_channel_desc);
-
-            NotificationChannel channel = new NotificationChannel(TimerAlarmReceiver.NOTIFICATION_CHANNEL_ID, name, importance);
-            channel.setDescription(description);
-
-            NotificationManager notificationManager = getSystemService(NotificationManager.class);
-            notificationManager.createNotificationChannel(channel);
-        }
-    }
-
     @Override
     protected void onResume() {
         super.onResume();
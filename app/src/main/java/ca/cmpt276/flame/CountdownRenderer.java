@@ -0,0 +1,116 @@
+package ca.cmpt276.flame;
+
+import android.view.Choreographer;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import ca.cmpt276.flame.model.TimeoutManager;
+
+/**
+ * CountdownRenderer draws the time remaining on the timeout screen once per display frame
+ * (using the Choreographer), so the circular progress bar moves smoothly and in step with
+ * the screen. The remaining time is read once per frame, and the "m:ss" text is written
+ * into a reused char array and only set when the second shown changes, so a running
+ * countdown does not allocate anything. The Listener is told when the countdown reaches zero.
+ */
+public class CountdownRenderer implements Choreographer.FrameCallback {
+    private static final int PROGRESS_BAR_STEPS = 10000;
+    private static final int MILLIS_IN_MIN = 60000;
+    private static final int MILLIS_IN_SEC = 1000;
+    private static final int SECS_IN_MIN = 60;
+    private static final int DECIMAL_BASE = 10;
+    // enough for the digits of any long number of minutes, plus ":ss"
+    private static final int MAX_TIME_CHARS = 22;
+    private static final long NOT_SHOWN = -1;
+    private final TimeoutManager timeoutManager = TimeoutManager.getInstance();
+    private final ProgressBar progressBar;
+    private final TextView timeTxt;
+    private final Listener listener;
+    private final char[] timeChars = new char[MAX_TIME_CHARS];
+    private long shownSecs = NOT_SHOWN;
+    private boolean isRunning = false;
+
+    /**
+     * Listener is told when the countdown has reached zero
+     */
+    public interface Listener {
+        void onCountdownFinished();
+    }
+
+    public CountdownRenderer(ProgressBar progressBar, TextView timeTxt, Listener listener) {
+        this.progressBar = progressBar;
+        this.timeTxt = timeTxt;
+        this.listener = listener;
+        progressBar.setMax(PROGRESS_BAR_STEPS);
+    }
+
+    // renders on every frame until stop() is called or the countdown finishes
+    public void start() {
+        if(!isRunning) {
+            isRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    public void stop() {
+        if(isRunning) {
+            isRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if(!isRunning) {
+            return;
+        }
+
+        if(render()) {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    // draws the time remaining now; returns false (and stops) if the countdown has finished
+    public boolean render() {
+        long millisRemaining = timeoutManager.getMillisRemaining();
+        long totalMillis = (long) timeoutManager.getMinutesEntered() * MILLIS_IN_MIN;
+
+        if(totalMillis > 0) {
+            progressBar.setProgress((int) (PROGRESS_BAR_STEPS * millisRemaining / totalMillis));
+        }
+
+        if(millisRemaining == 0) {
+            // the listener shows its own text, so the next time shown must be set again
+            shownSecs = NOT_SHOWN;
+            stop();
+            listener.onCountdownFinished();
+            return false;
+        }
+
+        long secsRemaining = millisRemaining / MILLIS_IN_SEC;
+        if(secsRemaining != shownSecs) {
+            shownSecs = secsRemaining;
+            int start = formatTime(secsRemaining);
+            timeTxt.setText(timeChars, start, timeChars.length - start);
+        }
+
+        return true;
+    }
+
+    // writes "m:ss" at the end of timeChars and returns where it starts
+    private int formatTime(long secsRemaining) {
+        long mins = secsRemaining / SECS_IN_MIN;
+        long secs = secsRemaining % SECS_IN_MIN;
+        int pos = timeChars.length;
+
+        timeChars[--pos] = (char) ('0' + secs % DECIMAL_BASE);
+        timeChars[--pos] = (char) ('0' + secs / DECIMAL_BASE);
+        timeChars[--pos] = ':';
+        do {
+            timeChars[--pos] = (char) ('0' + mins % DECIMAL_BASE);
+            mins /= DECIMAL_BASE;
+        } while(mins > 0);
+
+        return pos;
+    }
+}
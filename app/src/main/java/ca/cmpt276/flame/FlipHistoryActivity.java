@@ -1,50 +1,68 @@
 package ca.cmpt276.flame;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SwitchCompat;
 import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.os.Build;
 import android.os.Bundle;
-import android.text.Html;
-import android.text.Spanned;
 import android.util.DisplayMetrics;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Locale;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import ca.cmpt276.flame.model.BGMusicPlayer;
 import ca.cmpt276.flame.model.Child;
 import ca.cmpt276.flame.model.ChildrenManager;
+import ca.cmpt276.flame.model.FlipHistoryCursor;
 import ca.cmpt276.flame.model.FlipHistoryEntry;
 import ca.cmpt276.flame.model.FlipManager;
+import ca.cmpt276.flame.model.ModelEvent;
+import ca.cmpt276.flame.model.ModelEventListener;
 
 /**
  * FlipHistoryActivity allows the user to see the history of flip coin, which included child's name,
  * the result of flip coin, the state of win or lose, and the date teh child flip the coin.
  * If user click switch button, user could change state between only shows the turn child's history
- * and shows all children's history
+ * and shows all children's history.
+ * The history is loaded a page at a time (newest first) as the user scrolls down, and
+ * kept up to date from the model's change events. What each row shows is worked out ahead
+ * of time in the background by a FlipHistoryRenderer, and only for the rows that change:
+ * a new page is appended, a new flip is put on top, and a removed or renamed child only
+ * touches that child's rows.
  */
 public class FlipHistoryActivity extends AppCompatActivity {
     private final FlipManager flipManager = FlipManager.getInstance();
     private final ChildrenManager childrenManager = ChildrenManager.getInstance();
     private final Child turnChild = flipManager.getTurnChild();
     private final ArrayList<FlipHistoryEntry> historyList = new ArrayList<>();
-    private final HashMap<Long, Bitmap> childBitmaps = new HashMap<>();
     private static final float SCREEN_SIZE_BASE_RATIO = 5.0f;
+    private static final int PAGE_SIZE = FlipHistoryCursor.DEFAULT_PAGE_SIZE;
+    // how close to the end of the list the user can scroll before the next page is loaded
+    private static final int ROWS_BEFORE_NEXT_PAGE = 10;
+    private final ModelEventListener modelEventListener = this::onModelEvent;
+    private FlipHistoryCursor historyCursor;
+    // the oldest entry the cursor has returned, even if its child has since been removed
+    private FlipHistoryEntry oldestLoadedEntry;
+    // bumped whenever the list is replaced, so pages and flips rendered for the old list are dropped
+    private int listVersion;
+    private HistoryListAdapter adapter;
+    private FlipHistoryRenderer renderer;
+    private boolean isShowingTurnChildOnly = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -52,9 +70,19 @@ public class FlipHistoryActivity extends AppCompatActivity {
         setContentView(R.layout.activity_flip_history);
         setupToolbar();
         setupSwitchButton();
-        populateList();
+        renderer = new FlipHistoryRenderer(this);
         setupListView();
+        populateList(flipManager.getHistoryCursor(PAGE_SIZE));
         resizeToggleSwitch();
+        flipManager.addListener(modelEventListener);
+        childrenManager.addListener(modelEventListener);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        flipManager.removeListener(modelEventListener);
+        childrenManager.removeListener(modelEventListener);
     }
 
     private void setupToolbar() {
@@ -73,31 +101,93 @@ public class FlipHistoryActivity extends AppCompatActivity {
         }
 
         switchCompat.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            historyList.clear();
+            isShowingTurnChildOnly = isChecked;
             if (isChecked) {
                 //show only turn child's history
-                for (FlipHistoryEntry history : flipManager) {
-                    if (history.getChildId() == turnChild.getId()) {
-                        historyList.add(0, history);
-                    }
-                }
+                populateList(flipManager.getHistoryCursor(turnChild.getId(), PAGE_SIZE));
             } else {
                 //show all history
-                for (FlipHistoryEntry history : flipManager) {
-                    historyList.add(0, history);
-                }
+                populateList(flipManager.getHistoryCursor(PAGE_SIZE));
+            }
+        });
+    }
+
+    // replaces the list with the first page of the given cursor; later pages are loaded on scroll
+    private void populateList(FlipHistoryCursor cursor) {
+        historyCursor = cursor;
+        oldestLoadedEntry = null;
+        historyList.clear();
+        List<FlipHistoryEntry> page = historyCursor.nextPage();
+        addPage(page);
+        updateNoCoinsFlipped();
+
+        int version = ++listVersion;
+        RecyclerView recyclerView = findViewById(R.id.flipHistory_recyclerView);
+        renderEntries(page, renderedFlips -> {
+            if (version == listVersion) {
+                adapter.replaceRows(makeRows(renderedFlips));
+                recyclerView.scrollToPosition(0);
             }
-            setupListView();
         });
     }
 
-    private void populateList() {
-        for (FlipHistoryEntry history : flipManager) {
-            historyList.add(0, history);
+    // the entries are rendered in the background; the callback runs on the main thread, unless the screen is gone by then
+    private void renderEntries(List<FlipHistoryEntry> entries, FlipHistoryRenderer.Callback callback) {
+        Map<Long, String> childNames = new HashMap<>();
+        for (Child child : childrenManager) {
+            childNames.put(child.getId(), child.getName());
         }
+
+        renderer.render(entries, childNames, renderedFlips -> {
+            if (!isDestroyed()) {
+                callback.onRendered(renderedFlips);
+            }
+        });
     }
 
-    private void setupListView() {
+    // children may have been removed or renamed while their flips were being rendered:
+    // removed children's flips are dropped, and renamed children's flips are rendered again
+    private List<FlipRow> makeRows(List<FlipHistoryRenderer.RenderedFlip> renderedFlips) {
+        List<FlipRow> rows = new ArrayList<>(renderedFlips.size());
+        List<FlipHistoryEntry> renamedEntries = new ArrayList<>();
+
+        for (FlipHistoryRenderer.RenderedFlip renderedFlip : renderedFlips) {
+            FlipHistoryEntry entry = renderedFlip.getEntry();
+            Child child = childrenManager.getChild(entry.getChildId());
+            if (child == null && entry.getChildId() != Child.NONE) {
+                continue;
+            }
+
+            String childName = child == null ? null : child.getName();
+            if (!Objects.equals(childName, renderedFlip.getChildName())) {
+                renamedEntries.add(entry);
+            }
+            rows.add(new FlipRow(renderedFlip, child));
+        }
+
+        if (!renamedEntries.isEmpty()) {
+            renderEntries(renamedEntries, this::updateRows);
+        }
+        return rows;
+    }
+
+    // swaps in the newly rendered rows wherever those entries are still shown
+    private void updateRows(List<FlipHistoryRenderer.RenderedFlip> renderedFlips) {
+        Map<Long, FlipRow> updatedRows = new HashMap<>();
+        for (FlipRow row : makeRows(renderedFlips)) {
+            updatedRows.put(row.getSessionId(), row);
+        }
+
+        for (int i = 0; i < adapter.rows.size(); i++) {
+            FlipRow row = updatedRows.get(adapter.rows.get(i).getSessionId());
+            if (row != null) {
+                adapter.rows.set(i, row);
+                adapter.notifyItemChanged(i);
+            }
+        }
+    }
+
+    private void updateNoCoinsFlipped() {
         TextView noCoinsFlipped = findViewById(R.id.flipHistory_txtNoCoinsFlipped);
 
         if (historyList.isEmpty()) {
@@ -105,10 +195,142 @@ public class FlipHistoryActivity extends AppCompatActivity {
         } else {
             noCoinsFlipped.setVisibility(View.GONE);
         }
+    }
 
-        ArrayAdapter<FlipHistoryEntry> adapter = new HistoryListAdapter();
-        ListView list = findViewById(R.id.flipHistory_listView);
-        list.setAdapter(adapter);
+    private void onModelEvent(ModelEvent event) {
+        switch (event.getType()) {
+            case FLIP_RECORDED:
+                addFlip(event.getFlipEntry());
+                break;
+            case CHILD_REMOVED:
+                removeChildEntries(event.getChildId());
+                reopenCursor();
+                break;
+            case CHILD_RENAMED:
+                renderEntries(getShownEntries(event.getChildId()), this::updateRows);
+                break;
+            case CHILD_IMAGE_CHANGED:
+                updateChildImages(event.getChildId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void addFlip(FlipHistoryEntry entry) {
+        if (isShowingTurnChildOnly && entry.getChildId() != turnChild.getId()) {
+            return;
+        }
+
+        historyList.add(0, entry);
+        updateNoCoinsFlipped();
+
+        int version = listVersion;
+        renderEntries(Collections.singletonList(entry), renderedFlips -> {
+            if (version == listVersion) {
+                adapter.insertRows(0, makeRows(renderedFlips));
+            }
+        });
+    }
+
+    // the model has already dropped the child's flips; the pages loaded so far still hold them
+    private void removeChildEntries(long childId) {
+        Iterator<FlipHistoryEntry> itr = historyList.iterator();
+        while (itr.hasNext()) {
+            if (itr.next().getChildId() == childId) {
+                itr.remove();
+            }
+        }
+        updateNoCoinsFlipped();
+
+        for (int i = adapter.rows.size() - 1; i >= 0; i--) {
+            if (adapter.rows.get(i).getChildId() == childId) {
+                adapter.rows.remove(i);
+                adapter.notifyItemRemoved(i);
+            }
+        }
+    }
+
+    // the entries of the child's rows that are on the screen so far
+    private List<FlipHistoryEntry> getShownEntries(long childId) {
+        List<FlipHistoryEntry> entries = new ArrayList<>();
+        for (FlipRow row : adapter.rows) {
+            if (row.getChildId() == childId) {
+                entries.add(row.renderedFlip.getEntry());
+            }
+        }
+        return entries;
+    }
+
+    // the text stays the same, only the picture is bound again
+    private void updateChildImages(long childId) {
+        Child child = childrenManager.getChild(childId);
+        for (int i = 0; i < adapter.rows.size(); i++) {
+            FlipRow row = adapter.rows.get(i);
+            if (row.getChildId() == childId) {
+                adapter.rows.set(i, new FlipRow(row.renderedFlip, child));
+                adapter.notifyItemChanged(i);
+            }
+        }
+    }
+
+    // the history the cursor was reading has changed, so the next pages come from a new cursor, starting where it left off
+    private void reopenCursor() {
+        if (oldestLoadedEntry == null) {
+            // nothing was loaded, so the history was empty and the cursor has nothing left to read
+            return;
+        }
+
+        if (isShowingTurnChildOnly) {
+            historyCursor = flipManager.getHistoryCursor(turnChild.getId(), PAGE_SIZE);
+        } else {
+            historyCursor = flipManager.getHistoryCursor(PAGE_SIZE);
+        }
+        historyCursor.seekPast(oldestLoadedEntry);
+    }
+
+    private void setupListView() {
+        RecyclerView recyclerView = findViewById(R.id.flipHistory_recyclerView);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+
+        adapter = new HistoryListAdapter();
+        recyclerView.setAdapter(adapter);
+
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+                // the adapter only grows once a page has been rendered, so the loaded list is checked instead;
+                // otherwise every scroll until then would load yet another page
+                if (layoutManager.findLastVisibleItemPosition() >= historyList.size() - ROWS_BEFORE_NEXT_PAGE) {
+                    loadNextPage();
+                }
+            }
+        });
+    }
+
+    private void loadNextPage() {
+        if (historyCursor == null || !historyCursor.hasNextPage()) {
+            return;
+        }
+
+        List<FlipHistoryEntry> page = historyCursor.nextPage();
+        addPage(page);
+
+        int version = listVersion;
+        renderEntries(page, renderedFlips -> {
+            if (version == listVersion) {
+                adapter.insertRows(adapter.rows.size(), makeRows(renderedFlips));
+            }
+        });
+    }
+
+    private void addPage(List<FlipHistoryEntry> page) {
+        historyList.addAll(page);
+        if (!page.isEmpty()) {
+            oldestLoadedEntry = page.get(page.size() - 1);
+        }
     }
 
 
@@ -129,77 +351,88 @@ public class FlipHistoryActivity extends AppCompatActivity {
         return (float) Math.sqrt(Math.pow(widthInch, 2) + Math.pow(heightInch, 2));
     }
 
-    private class HistoryListAdapter extends ArrayAdapter<FlipHistoryEntry> {
-        HistoryListAdapter() {
-            super(FlipHistoryActivity.this, R.layout.list_view_flip_history, historyList);
-        }
-
-        @NonNull
-        @Override
-        public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-            //make sure we have a view to work with (may have been given null)
-            View itemView = convertView;
-            if (itemView == null) {
-                itemView = getLayoutInflater().inflate(R.layout.list_view_flip_history, parent, false);
-            }
-
-            FlipHistoryEntry currentHistory = historyList.get(position);
-
-            String coinSideResult;
-            if (currentHistory.getResult() == FlipManager.CoinSide.HEADS) {
-                coinSideResult = getString(R.string.heads);
-            } else {
-                coinSideResult = getString(R.string.tails);
-            }
-
-            String flipResult;
-            Child child = childrenManager.getChild(currentHistory.getChildId());
+    /**
+     * FlipRow is a rendered entry along with the child whose picture it shows
+     */
+    private static class FlipRow {
+        private final FlipHistoryRenderer.RenderedFlip renderedFlip;
+        private final Child child;
 
-            if (child != null) {
-                String wonOrLost;
+        FlipRow(FlipHistoryRenderer.RenderedFlip renderedFlip, Child child) {
+            this.renderedFlip = renderedFlip;
+            this.child = child;
+        }
 
-                if (currentHistory.wasWon()) {
-                    wonOrLost = getString(R.string.won_green);
-                } else {
-                    wonOrLost = getString(R.string.lost_red);
-                }
+        long getSessionId() {
+            return renderedFlip.getEntry().getSessionId();
+        }
 
-                flipResult = getString(R.string.flip_result_child, child.getName(), coinSideResult, wonOrLost);
-            } else {
-                flipResult = getString(R.string.flip_result, coinSideResult);
-            }
+        long getChildId() {
+            return renderedFlip.getEntry().getChildId();
+        }
+    }
 
-            TextView txtMain = itemView.findViewById(R.id.flipHistory_txtMain);
-            txtMain.setText(getTextFromHtml(flipResult));
+    /**
+     * HistoryListAdapter shows the rows; the activity changes them and tells it which ones changed
+     */
+    private class HistoryListAdapter extends RecyclerView.Adapter<FlipViewHolder> {
+        private final List<FlipRow> rows = new ArrayList<>();
 
-            ImageView profileImg = itemView.findViewById(R.id.flipHistory_imgProfile);
-            profileImg.setImageBitmap(getChildBitmap(child));
+        HistoryListAdapter() {
+            setHasStableIds(true);
+        }
 
-            SimpleDateFormat format = new SimpleDateFormat("MMM dd HH:mm", Locale.getDefault());
-            String time = format.format(currentHistory.getDate());
+        void replaceRows(List<FlipRow> newRows) {
+            rows.clear();
+            rows.addAll(newRows);
+            notifyDataSetChanged();
+        }
 
-            TextView txtTime = itemView.findViewById(R.id.flipHistory_txtTime);
-            txtTime.setText(time);
+        void insertRows(int position, List<FlipRow> newRows) {
+            rows.addAll(position, newRows);
+            notifyItemRangeInserted(position, newRows.size());
+        }
 
-            return itemView;
+        @Override
+        public int getItemCount() {
+            return rows.size();
         }
-    }
 
-    // reduce memory usage by only storing one bitmap in memory for each child
-    private Bitmap getChildBitmap(Child child) {
-        if(child == null || !child.hasImage()) {
-            if(!childBitmaps.containsKey(Child.NONE)) {
-                childBitmaps.put(Child.NONE, Child.getDefaultImageBitmap(this));
-            }
+        @Override
+        public long getItemId(int position) {
+            return rows.get(position).getSessionId();
+        }
 
-            return childBitmaps.get(Child.NONE);
+        @NonNull
+        @Override
+        public FlipViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View itemView = getLayoutInflater().inflate(R.layout.list_view_flip_history, parent, false);
+            return new FlipViewHolder(itemView);
         }
 
-        if(!childBitmaps.containsKey(child.getId())) {
-            childBitmaps.put(child.getId(), child.getImageBitmap(this));
+        @Override
+        public void onBindViewHolder(@NonNull FlipViewHolder holder, int position) {
+            FlipRow row = rows.get(position);
+            holder.txtMain.setText(row.renderedFlip.getText());
+            ChildImageLoader.load(holder.profileImg, row.child);
+            holder.txtTime.setText(row.renderedFlip.getTime());
         }
+    }
 
-        return childBitmaps.get(child.getId());
+    /**
+     * FlipViewHolder holds the views of a row, so they are only looked up once
+     */
+    private static class FlipViewHolder extends RecyclerView.ViewHolder {
+        private final TextView txtMain;
+        private final ImageView profileImg;
+        private final TextView txtTime;
+
+        FlipViewHolder(@NonNull View itemView) {
+            super(itemView);
+            txtMain = itemView.findViewById(R.id.flipHistory_txtMain);
+            profileImg = itemView.findViewById(R.id.flipHistory_imgProfile);
+            txtTime = itemView.findViewById(R.id.flipHistory_txtTime);
+        }
     }
 
     @Override
@@ -211,13 +444,4 @@ public class FlipHistoryActivity extends AppCompatActivity {
     protected static Intent makeIntent(Context context) {
         return new Intent(context, FlipHistoryActivity.class);
     }
-
-    // https://stackoverflow.com/questions/7130619/bold-words-in-a-string-of-strings-xml-in-android
-    private Spanned getTextFromHtml(String text) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            return Html.fromHtml(text, Html.FROM_HTML_MODE_COMPACT);
-        } else {
-            return Html.fromHtml(text);
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+package ca.cmpt276.flame;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Html;
+import android.text.Spanned;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ca.cmpt276.flame.model.FlipHistoryEntry;
+import ca.cmpt276.flame.model.FlipManager;
+
+/**
+ * FlipHistoryRenderer works out what each flip history row shows (the result text, already
+ * parsed from HTML, and the formatted time) on a background thread, so binding a row is
+ * just setting text. Only the entries asked for are rendered (a new page, a new flip, or
+ * the flips of a renamed child), so the rows already shown are never rendered again.
+ * Results are passed back on the main thread, in the order they were asked for.
+ */
+public class FlipHistoryRenderer {
+    private static final ExecutorService RENDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private final Context context;
+    // only used on the render thread, since SimpleDateFormat is not thread-safe
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd HH:mm", Locale.getDefault());
+
+    /**
+     * Callback receives the rendered entries on the main thread
+     */
+    public interface Callback {
+        void onRendered(List<RenderedFlip> renderedFlips);
+    }
+
+    /**
+     * RenderedFlip is an entry along with everything its row shows
+     */
+    public static class RenderedFlip {
+        private final FlipHistoryEntry entry;
+        // the name the text was rendered with (null if the child has been deleted or no child flipped)
+        private final String childName;
+        private final Spanned text;
+        private final String time;
+
+        private RenderedFlip(FlipHistoryEntry entry, String childName, Spanned text, String time) {
+            this.entry = entry;
+            this.childName = childName;
+            this.text = text;
+            this.time = time;
+        }
+
+        public FlipHistoryEntry getEntry() {
+            return entry;
+        }
+
+        public String getChildName() {
+            return childName;
+        }
+
+        public Spanned getText() {
+            return text;
+        }
+
+        public String getTime() {
+            return time;
+        }
+    }
+
+    public FlipHistoryRenderer(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    // childNames maps the ID of each child who still exists to their name, as it is now
+    public void render(List<FlipHistoryEntry> entries, Map<Long, String> childNames, Callback callback) {
+        RENDER_EXECUTOR.execute(() -> {
+            List<RenderedFlip> rendered = new ArrayList<>(entries.size());
+            for(FlipHistoryEntry entry : entries) {
+                String childName = childNames.get(entry.getChildId());
+                rendered.add(new RenderedFlip(entry, childName, getTextFromHtml(getResultText(entry, childName)),
+                        dateFormat.format(entry.getDate())));
+            }
+
+            MAIN_HANDLER.post(() -> callback.onRendered(rendered));
+        });
+    }
+
+    private String getResultText(FlipHistoryEntry entry, String childName) {
+        String coinSideResult;
+        if(entry.getResult() == FlipManager.CoinSide.HEADS) {
+            coinSideResult = context.getString(R.string.heads);
+        } else {
+            coinSideResult = context.getString(R.string.tails);
+        }
+
+        if(childName == null) {
+            return context.getString(R.string.flip_result, coinSideResult);
+        }
+
+        String wonOrLost;
+        if(entry.wasWon()) {
+            wonOrLost = context.getString(R.string.won_green);
+        } else {
+            wonOrLost = context.getString(R.string.lost_red);
+        }
+
+        return context.getString(R.string.flip_result_child, childName, coinSideResult, wonOrLost);
+    }
+
+    // https://stackoverflow.com/questions/7130619/bold-words-in-a-string-of-strings-xml-in-android
+    private static Spanned getTextFromHtml(String text) {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Html.fromHtml(text, Html.FROM_HTML_MODE_COMPACT);
+        } else {
+            return Html.fromHtml(text);
+        }
+    }
+}
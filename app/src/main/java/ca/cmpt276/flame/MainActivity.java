@@ -6,13 +6,11 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.widget.Button;
 import android.widget.ImageButton;
 
 import ca.cmpt276.flame.model.BGMusicPlayer;
-import ca.cmpt276.flame.model.PrefsManager;
 import ca.cmpt276.flame.model.TimeoutManager;
 
 import static ca.cmpt276.flame.model.BGMusicPlayer.playBgMusic;
@@ -30,7 +28,7 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-        initModel();
+        BGMusicPlayer.init(getApplicationContext());
         setupButtons();
         listenForScreenTurningOff();
 
@@ -39,12 +37,6 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void initModel() {
-        SharedPreferences sharedPrefs = getPreferences(MODE_PRIVATE);
-        PrefsManager.init(sharedPrefs);
-        BGMusicPlayer.init(getApplicationContext());
-    }
-
     private void setupButtons() {
         Button taskBtn = findViewById(R.id.main_btnTask);
         Button flipCoinBtn = findViewById(R.id.main_btnFlipCoin);
@@ -0,0 +1,65 @@
+package ca.cmpt276.flame;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import ca.cmpt276.flame.model.PrefsManager;
+
+/**
+ * PersistOnPauseCallbacks flushes any model changes that are waiting to be persisted
+ * whenever an activity is paused, since the app may be closed (or killed) at any time
+ * after that point.
+ */
+public class PersistOnPauseCallbacks implements Application.ActivityLifecycleCallbacks {
+    private static boolean isRegistered = false;
+
+    private PersistOnPauseCallbacks() {
+        // use register() so that the callbacks are only registered once
+    }
+
+    public static void register(Application application) {
+        if(!isRegistered) {
+            application.registerActivityLifecycleCallbacks(new PersistOnPauseCallbacks());
+            isRegistered = true;
+        }
+    }
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {
+        PrefsManager.flush();
+    }
+
+    @Override
+    public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+        // nothing needs to be persisted here
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {
+        // nothing needs to be persisted here
+    }
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {
+        // nothing needs to be persisted here
+    }
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {
+        // nothing needs to be persisted here
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+        // nothing needs to be persisted here
+    }
+
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {
+        // nothing needs to be persisted here
+    }
+}
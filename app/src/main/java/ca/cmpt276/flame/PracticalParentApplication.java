@@ -0,0 +1,48 @@
+package ca.cmpt276.flame;
+
+import android.app.Application;
+import android.content.SharedPreferences;
+
+import ca.cmpt276.flame.model.ChildImageCache;
+import ca.cmpt276.flame.model.PrefsManager;
+import ca.cmpt276.flame.model.ProfileImageStore;
+import ca.cmpt276.flame.model.SQLiteBackend;
+import ca.cmpt276.flame.model.SharedPrefsBackend;
+import ca.cmpt276.flame.model.StorageBackend;
+import ca.cmpt276.flame.model.TimeoutManager;
+
+/**
+ * PracticalParentApplication sets up the model and the timer notifications when the app's
+ * process starts, before any activity or receiver runs, so that the TimerAlarmReceiver can
+ * use them even when the alarm starts the process. Only what the receiver needs is loaded
+ * here: the rest of the model (e.g. the children and their images) is loaded when first used.
+ */
+public class PracticalParentApplication extends Application {
+    // older versions of the app used MainActivity.getPreferences(), which is stored under this name
+    private static final String SHARED_PREFS_NAME = "MainActivity";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        initModel();
+        TimeoutManager.init(this);
+        TimerNotifications.init(this);
+    }
+
+    private void initModel() {
+        SharedPreferences sharedPrefs = getSharedPreferences(SHARED_PREFS_NAME, MODE_PRIVATE);
+        SharedPrefsBackend sharedPrefsBackend = new SharedPrefsBackend(sharedPrefs, getFilesDir());
+        StorageBackend storageBackend = sharedPrefsBackend;
+
+        if(BuildConfig.USE_SQLITE_STORAGE) {
+            SQLiteBackend sqliteBackend = SQLiteBackend.getInstance(this);
+            sqliteBackend.migrateFrom(sharedPrefsBackend);
+            storageBackend = sqliteBackend;
+        }
+
+        PrefsManager.init(sharedPrefs, storageBackend);
+        ProfileImageStore.init(this);
+        PersistOnPauseCallbacks.register(this);
+        ChildImageCache.getInstance().register(this);
+    }
+}
@@ -1,10 +1,14 @@
 package ca.cmpt276.flame;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.fragment.app.FragmentManager;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 
 import android.content.Context;
 import android.content.Intent;
@@ -13,14 +17,16 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
-
+import ca.cmpt276.flame.model.Child;
+import ca.cmpt276.flame.model.ChildrenManager;
+import ca.cmpt276.flame.model.ModelEventListener;
 import ca.cmpt276.flame.model.Task;
 import ca.cmpt276.flame.model.TaskManager;
 
@@ -28,22 +34,45 @@ import ca.cmpt276.flame.model.TaskManager;
  * TaskActivity: allow users to view a list of tasks
  * Users may click 'add' button on the top right to add a new task
  * Users may click an existing task to rename or delete the task
+ * Whenever the model changes, the new rows are compared with the old ones in the
+ * background (DiffUtil) and only the rows that changed are updated.
  */
 public class TaskActivity extends AppCompatActivity {
+    private static final DiffUtil.ItemCallback<TaskRow> TASK_ROW_DIFF = new DiffUtil.ItemCallback<TaskRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull TaskRow oldRow, @NonNull TaskRow newRow) {
+            return oldRow.task.getId() == newRow.task.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull TaskRow oldRow, @NonNull TaskRow newRow) {
+            return oldRow.taskName.equals(newRow.taskName)
+                    && oldRow.nextChild == newRow.nextChild
+                    && Objects.equals(oldRow.nextChildName, newRow.nextChildName)
+                    && Objects.equals(oldRow.nextChildImageHash, newRow.nextChildImageHash);
+        }
+    };
+
     private final TaskManager taskManager = TaskManager.getInstance();
-    private final ArrayList<Task> taskList = new ArrayList<>();
+    private final ChildrenManager childrenManager = ChildrenManager.getInstance();
+    private final ModelEventListener modelEventListener = event -> submitTaskRows();
+    private TaskListAdapter adapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_task);
         setupToolbar();
+        setupListView();
+        taskManager.addListener(modelEventListener);
+        childrenManager.addListener(modelEventListener);
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        refreshListView();
+    protected void onDestroy() {
+        super.onDestroy();
+        taskManager.removeListener(modelEventListener);
+        childrenManager.removeListener(modelEventListener);
     }
 
     @Override
@@ -63,49 +92,102 @@ public class TaskActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
-    protected void refreshListView() {
-        taskList.clear();
+    private void setupListView() {
+        RecyclerView recyclerView = findViewById(R.id.task_recyclerView);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+
+        adapter = new TaskListAdapter();
+        recyclerView.setAdapter(adapter);
+        submitTaskRows();
+    }
+
+    private void submitTaskRows() {
+        List<TaskRow> rows = new ArrayList<>();
         for (Task task : taskManager) {
-            taskList.add(task);
+            rows.add(new TaskRow(task));
         }
-        ArrayAdapter<Task> adapter = new TaskListAdapter();
-        ListView list = findViewById(R.id.task_listView);
-        list.setAdapter(adapter);
+        adapter.submitList(rows);
     }
 
-    private class TaskListAdapter extends ArrayAdapter<Task> {
+    /**
+     * TaskRow is what a row shows, copied from the task so rows can be compared off the main thread
+     */
+    private static class TaskRow {
+        private final Task task;
+        private final String taskName;
+        private final Child nextChild;
+        private final String nextChildName;
+        private final String nextChildImageHash;
+
+        TaskRow(Task task) {
+            this.task = task;
+            this.taskName = task.getName();
+            this.nextChild = task.getNextChild();
+            this.nextChildName = nextChild == null ? null : nextChild.getName();
+            this.nextChildImageHash = nextChild == null ? null : nextChild.getImageHash();
+        }
+    }
+
+    private class TaskListAdapter extends ListAdapter<TaskRow, TaskViewHolder> {
         TaskListAdapter() {
-            super(TaskActivity.this, R.layout.list_view_task, taskList);
+            super(TASK_ROW_DIFF);
+            setHasStableIds(true);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return getItem(position).task.getId();
         }
 
         @NonNull
         @Override
-        public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-            //make sure we have a view to work with (may have been given null)
-            View itemView = convertView;
-            if (itemView == null) {
-                itemView = getLayoutInflater().inflate(R.layout.list_view_task, parent, false);
-            }
+        public TaskViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View itemView = getLayoutInflater().inflate(R.layout.list_view_task, parent, false);
+            TaskViewHolder holder = new TaskViewHolder(itemView);
 
-            Task clickedTask = taskList.get(position);
-            if(clickedTask.getNextChild() != null) {
-                TextView txtChildName = itemView.findViewById(R.id.task_txtChildName);
-                txtChildName.setText(clickedTask.getNextChild().getName());
+            itemView.setOnClickListener(v -> {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    FragmentManager manager = getSupportFragmentManager();
+                    TaskFragment dialog = new TaskFragment(getItem(position).task);
+                    dialog.show(manager, "TaskDialog");
+                }
+            });
 
-                ImageView imagePortrait = itemView.findViewById(R.id.task_imagePortrait);
-                imagePortrait.setImageBitmap(clickedTask.getNextChild().getImageBitmap(this.getContext()));
-            }
+            return holder;
+        }
 
-            TextView txtTaskName = itemView.findViewById(R.id.task_txtTaskName);
-            txtTaskName.setText(clickedTask.getName());
+        @Override
+        public void onBindViewHolder(@NonNull TaskViewHolder holder, int position) {
+            TaskRow row = getItem(position);
+
+            if (row.nextChild != null) {
+                holder.txtChildName.setText(row.nextChildName);
+                ChildImageLoader.load(holder.imagePortrait, row.nextChild);
+            } else {
+                // the row may have been showing another task's child before it was recycled
+                holder.txtChildName.setText(R.string.child_name);
+                ChildImageLoader.clear(holder.imagePortrait);
+            }
 
-            itemView.setOnClickListener(v -> {
-                FragmentManager manager = getSupportFragmentManager();
-                TaskFragment dialog = new TaskFragment(TaskActivity.this, clickedTask);
-                dialog.show(manager, "TaskDialog");
-            });
+            holder.txtTaskName.setText(row.taskName);
+        }
+    }
 
-            return itemView;
+    /**
+     * TaskViewHolder holds the views of a row, so they are only looked up once
+     */
+    private static class TaskViewHolder extends RecyclerView.ViewHolder {
+        private final TextView txtTaskName;
+        private final TextView txtChildName;
+        private final ImageView imagePortrait;
+
+        TaskViewHolder(@NonNull View itemView) {
+            super(itemView);
+            txtTaskName = itemView.findViewById(R.id.task_txtTaskName);
+            txtChildName = itemView.findViewById(R.id.task_txtChildName);
+            imagePortrait = itemView.findViewById(R.id.task_imagePortrait);
         }
     }
 
@@ -30,11 +30,9 @@ import ca.cmpt276.flame.model.TaskManager;
 
 public class TaskFragment extends AppCompatDialogFragment {
     private final TaskManager taskManager = TaskManager.getInstance();
-    private final TaskActivity taskActivity;
     private final Task clickedTask;
 
-    public TaskFragment(TaskActivity taskActivity, Task clickedTask) {
-        this.taskActivity = taskActivity;
+    public TaskFragment(Task clickedTask) {
         this.clickedTask = clickedTask;
     }
 
@@ -77,7 +75,6 @@ public class TaskFragment extends AppCompatDialogFragment {
             btnTookTurn.setVisibility(View.VISIBLE);
             btnTookTurn.setOnClickListener(v -> {
                 taskManager.takeTurn(clickedTask);
-                taskActivity.refreshListView();
                 this.dismiss();
             });
         }
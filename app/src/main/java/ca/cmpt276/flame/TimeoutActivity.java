@@ -4,9 +4,9 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Color;
 import android.os.Bundle;
-import android.os.CountDownTimer;
 import android.view.Gravity;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
 import android.widget.NumberPicker;
@@ -18,9 +18,10 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
 import java.util.ArrayList;
-import java.util.Locale;
 
 import ca.cmpt276.flame.model.BGMusicPlayer;
+import ca.cmpt276.flame.model.ModelEvent;
+import ca.cmpt276.flame.model.ModelEventListener;
 import ca.cmpt276.flame.model.TimeoutManager;
 
 /**
@@ -28,31 +29,23 @@ import ca.cmpt276.flame.model.TimeoutManager;
  * to pause, reset, resume or cancel the timer
  */
 public class TimeoutActivity extends AppCompatActivity {
-    private static final int MILLIS_IN_MIN = 60000;
-    private static final int MILLIS_IN_SEC = 1000;
-    private static final int PROGRESS_BAR_STEPS = 1000;
-    private static final int COUNTDOWN_INTERVAL_MILLIS = 40;
     public static final int TIMER_SPEED_MIN_VALUE = 25;
     public static final int TIMER_SPEED_MAX_VALUE = 400;
     public static final int TIMER_SPEED_INCREMENT = 25;
     private final TimeoutManager timeoutManager = TimeoutManager.getInstance();
+    private final ModelEventListener modelEventListener = this::onModelEvent;
     private TextView timeSpeedTxt;
-    private CountDownTimer countDownTimer;
+    private CountdownRenderer countdownRenderer;
     private Button pauseTimerBtn;
     private Button resetBtn;
     private TextView countdownTimeTxt;
-    private ProgressBar circularProgressBar;
     private ImageButton settingImageBtn;
-    private float millisEntered;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_timeout);
 
-        millisEntered = timeoutManager.getMinutesEntered() * MILLIS_IN_MIN;
-        circularProgressBar = findViewById(R.id.timeout_progressBar);
-        circularProgressBar.setMax(PROGRESS_BAR_STEPS);
         settingImageBtn = findViewById(R.id.timeoutActivity_settingsImageButton);
         timeSpeedTxt = findViewById(R.id.timeoutActivity_timeSpeedView);
         setupToolbar();
@@ -65,7 +58,27 @@ public class TimeoutActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
-        countDownTimer.cancel();
+        timeoutManager.removeListener(modelEventListener);
+        countdownRenderer.stop();
+    }
+
+    // the timer may also be paused or resumed from its notification
+    private void onModelEvent(ModelEvent event) {
+        if(event.getType() == ModelEvent.Type.TIMEOUT_CHANGED
+                && event.getTimeoutId() == timeoutManager.getMainTimeout().getId()) {
+            updateTimer();
+        }
+    }
+
+    private void updateTimer() {
+        updateTimerProgress();
+        updateButtons();
+        updateTimerSpeedTxt();
+        if(timeoutManager.getTimerState() == TimeoutManager.TimerState.RUNNING) {
+            countdownRenderer.start();
+        } else {
+            countdownRenderer.stop();
+        }
     }
 
     private void updateButtons() {
@@ -86,28 +99,14 @@ public class TimeoutActivity extends AppCompatActivity {
     }
 
     private void updateTimerProgress() {
-        if(countdownTimeTxt == null) {
-            countdownTimeTxt = findViewById(R.id.timeout_txtTimeRemaining);
-        }
-
-        long millisRemaining = timeoutManager.getMillisRemaining();
-        int progressBarStepsLeft = (int) (PROGRESS_BAR_STEPS * millisRemaining / millisEntered);
-
-        circularProgressBar.setProgress(progressBarStepsLeft);
-
-        long minRemaining = millisRemaining / MILLIS_IN_MIN;
-        long secRemaining = (millisRemaining % MILLIS_IN_MIN) / MILLIS_IN_SEC;
-        String timeStr = String.format(Locale.getDefault(), "%d:%02d", minRemaining, secRemaining);
-
-        countdownTimeTxt.setText(timeStr);
+        countdownRenderer.render();
+    }
 
-        if(timeoutManager.getMillisRemaining() == 0) {
-            countDownTimer.cancel();
-            countdownTimeTxt.setText(R.string.finished);
-            updateButtons();
-            timeSpeedTxt.setVisibility(TextView.INVISIBLE);
-            settingImageBtn.setVisibility(TextView.INVISIBLE);
-        }
+    private void onCountdownFinished() {
+        countdownTimeTxt.setText(R.string.finished);
+        updateButtons();
+        timeSpeedTxt.setVisibility(TextView.INVISIBLE);
+        settingImageBtn.setVisibility(TextView.INVISIBLE);
     }
 
     private void updateTimerSpeedTxt() {
@@ -126,7 +125,7 @@ public class TimeoutActivity extends AppCompatActivity {
             switch (timeoutManager.getTimerState()) {
                 case RUNNING:
                     // "Pause" button
-                    countDownTimer.cancel();
+                    countdownRenderer.stop();
                     timeoutManager.pause(getApplicationContext());
                     break;
                 case PAUSED:
@@ -135,8 +134,8 @@ public class TimeoutActivity extends AppCompatActivity {
                     // "Start" button if timer is stopped
                     settingImageBtn.setVisibility(TextView.VISIBLE);
                     timeSpeedTxt.setVisibility(TextView.VISIBLE);
-                    countDownTimer.start();
                     timeoutManager.start(getApplicationContext());
+                    countdownRenderer.start();
                     updateTimerSpeedTxt();
                     break;
             }
@@ -154,7 +153,7 @@ public class TimeoutActivity extends AppCompatActivity {
                 timeoutManager.cancelAlarm(getApplicationContext());
                 finish();
             } else {
-                countDownTimer.cancel();
+                countdownRenderer.stop();
                 timeoutManager.reset(getApplicationContext());
                 updateTimerProgress();
                 updateButtons();
@@ -165,18 +164,11 @@ public class TimeoutActivity extends AppCompatActivity {
     }
 
     private void setupTimer() {
-        countDownTimer = new CountDownTimer(Long.MAX_VALUE, COUNTDOWN_INTERVAL_MILLIS) {
-            @Override
-            public void onTick(long millisUntilFinished) {
-                updateTimerProgress();
-            }
+        ProgressBar circularProgressBar = findViewById(R.id.timeout_progressBar);
+        countdownTimeTxt = findViewById(R.id.timeout_txtTimeRemaining);
 
-            @Override
-            public void onFinish() {
-                // method is required but nothing needs to happen here
-                // instead, the TimeoutManager manages what happens when the timer finishes
-            }
-        };
+        // the renderer only draws the countdown; the TimeoutManager manages what happens when the timer finishes
+        countdownRenderer = new CountdownRenderer(circularProgressBar, countdownTimeTxt, this::onCountdownFinished);
     }
 
     private void chooseSpeedDialog() {
@@ -188,8 +180,12 @@ public class TimeoutActivity extends AppCompatActivity {
         speedPicker.setMaxValue(numberStrings.length - 1);
         speedPicker.setDisplayedValues(numberStrings);
         speedPicker.setValue((timeoutManager.getSpeedPercentage() / TIMER_SPEED_INCREMENT) - 1);
+
+        CheckBox countdownCheckBox = new CheckBox(this);
+        countdownCheckBox.setText(R.string.show_countdown_notification);
+        countdownCheckBox.setChecked(timeoutManager.isCountdownNotificationEnabled());
         
-        LinearLayout numberLayout = setLinearNumberLayout(speedPicker);
+        LinearLayout numberLayout = setLinearNumberLayout(speedPicker, countdownCheckBox);
         
         new AlertDialog.Builder(TimeoutActivity.this)
                 .setTitle(R.string.choose_time_speed)
@@ -197,6 +193,7 @@ public class TimeoutActivity extends AppCompatActivity {
                 .setPositiveButton(R.string.ok, (dialogInterface, i) -> {
                     int speed = Integer.parseInt(numberStrings[speedPicker.getValue()]);
                     timeoutManager.setSpeedPercentage(this, speed);
+                    timeoutManager.setCountdownNotificationEnabled(countdownCheckBox.isChecked());
                     updateTimerSpeedTxt();
                 })
                 .setNegativeButton(R.string.cancel, null).show();
@@ -212,9 +209,11 @@ public class TimeoutActivity extends AppCompatActivity {
         return options.toArray(new String[0]);
     }
 
-    private LinearLayout setLinearNumberLayout(NumberPicker numberPicker) {
+    private LinearLayout setLinearNumberLayout(NumberPicker numberPicker, CheckBox checkBox) {
         LinearLayout layout = new LinearLayout(getApplicationContext());
+        layout.setOrientation(LinearLayout.VERTICAL);
         layout.addView(numberPicker);
+        layout.addView(checkBox);
         layout.setHorizontalGravity(Gravity.CENTER_HORIZONTAL);
         return layout;
     }
@@ -230,12 +229,8 @@ public class TimeoutActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
 
-        updateTimerProgress();
-        updateButtons();
-        updateTimerSpeedTxt();
-        if(timeoutManager.getTimerState() == TimeoutManager.TimerState.RUNNING) {
-            countDownTimer.start();
-        }
+        timeoutManager.addListener(modelEventListener);
+        updateTimer();
 
         BGMusicPlayer.resumeBgMusic();
     }
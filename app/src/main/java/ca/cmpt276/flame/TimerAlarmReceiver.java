@@ -5,21 +5,27 @@ import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.BitmapFactory;
-import android.provider.Settings;
 
-import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
-import static androidx.core.app.NotificationCompat.FLAG_INSISTENT;
+import ca.cmpt276.flame.model.PrefsManager;
+import ca.cmpt276.flame.model.TimeoutManager;
+
+import static ca.cmpt276.flame.TimerNotifications.FINISHED_NOTIFICATION_ID;
 
 /**
- * TimerAlarmReceiver runs when the timer is finished and sends the user a notification
+ * TimerAlarmReceiver runs when a timer is finished and sends the user a notification.
+ * It also lets the TimeoutManager set the alarm for the next timer to finish. The
+ * notification itself is prepared ahead of time by TimerNotifications. The pause and
+ * resume buttons on the countdown notification are handled here too.
  */
 public class TimerAlarmReceiver extends BroadcastReceiver {
     public static final String NOTIFICATION_CHANNEL_ID = "NOTIFICATION_CHANNEL_TIMER_ALARM";
     public static final String EXTRA_CANCEL_NOTIFICATION = "CANCEL_NOTIFICATION";
-    private static final long[] VIBRATION_PATTERN = {500, 1000, 500, 1000, 500, 1000};
+    public static final String EXTRA_PAUSE_TIMER = "PAUSE_TIMER";
+    public static final String EXTRA_RESUME_TIMER = "RESUME_TIMER";
+    private static final int REQUEST_CODE_PAUSE_TIMER = 2;
+    private static final int REQUEST_CODE_RESUME_TIMER = 3;
 
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -30,26 +36,56 @@ public class TimerAlarmReceiver extends BroadcastReceiver {
             return;
         }
 
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, NOTIFICATION_CHANNEL_ID)
-                .setSmallIcon(R.drawable.clock_icon)
-                .setLargeIcon(BitmapFactory.decodeResource(context.getResources(), R.drawable.practical_parent_icon))
-                .setContentTitle(context.getString(R.string.timer_notification_title))
-                .setContentText(context.getString(R.string.timer_notification_desc))
-                .setContentIntent(getCancelNotificationPendingIntent(context))
-                .setPriority(NotificationCompat.PRIORITY_MAX)
-                .setVibrate(VIBRATION_PATTERN)
-                .setSound(Settings.System.DEFAULT_ALARM_ALERT_URI);
+        if(intent.getBooleanExtra(EXTRA_PAUSE_TIMER, false)) {
+            onPauseOrResume(context, TimeoutManager.TimerState.RUNNING);
+            return;
+        }
 
-        Notification notification = builder.build();
-        notification.flags = FLAG_INSISTENT;
+        if(intent.getBooleanExtra(EXTRA_RESUME_TIMER, false)) {
+            onPauseOrResume(context, TimeoutManager.TimerState.PAUSED);
+            return;
+        }
 
+        // the user is alerted first; the alarm for the next timer can wait a moment
+        Notification notification = TimerNotifications.getInstance().getFinishedNotification();
         NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-        notificationManager.notify(0, notification);
+        notificationManager.notify(FINISHED_NOTIFICATION_ID, notification);
+
+        TimeoutManager.getInstance().onAlarm(context);
+        flushBeforeFinishing();
+    }
+
+    // the process may be stopped as soon as the receiver finishes, so it is kept going until the changes
+    // it made have been written (PrefsManager.flush() only queues them on the write thread)
+    private void flushBeforeFinishing() {
+        PendingResult pendingResult = goAsync();
+        PrefsManager.runAfterWrite(pendingResult::finish);
+        PrefsManager.flush();
+    }
+
+    // the button is only acted on if the timer is still in the state it was shown for (expectedState)
+    private void onPauseOrResume(Context context, TimeoutManager.TimerState expectedState) {
+        TimeoutManager timeoutManager = TimeoutManager.getInstance();
+
+        if(timeoutManager.getTimerState() != expectedState) {
+            // the notification is out of date (e.g. the timer has just finished)
+            TimerNotifications.getInstance().updateCountdownNotification();
+            return;
+        }
+
+        if(expectedState == TimeoutManager.TimerState.RUNNING) {
+            timeoutManager.pause(context);
+        } else {
+            timeoutManager.start(context);
+        }
+
+        flushBeforeFinishing();
     }
 
+    // cancels the finished notification (the countdown is left to TimerNotifications)
     public static void cancelNotifications(Context context) {
         NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-        notificationManager.cancelAll();
+        notificationManager.cancel(FINISHED_NOTIFICATION_ID);
     }
 
     public static PendingIntent getNotificationPendingIntent(Context context) {
@@ -57,9 +93,21 @@ public class TimerAlarmReceiver extends BroadcastReceiver {
         return PendingIntent.getBroadcast(context, 0, intent, 0);
     }
 
-    private static PendingIntent getCancelNotificationPendingIntent(Context context) {
+    protected static PendingIntent getCancelNotificationPendingIntent(Context context) {
         Intent intent = new Intent(context, TimerAlarmReceiver.class);
         intent.putExtra(EXTRA_CANCEL_NOTIFICATION, true);
         return PendingIntent.getBroadcast(context, 1, intent, 0);
     }
+
+    protected static PendingIntent getPauseTimerPendingIntent(Context context) {
+        Intent intent = new Intent(context, TimerAlarmReceiver.class);
+        intent.putExtra(EXTRA_PAUSE_TIMER, true);
+        return PendingIntent.getBroadcast(context, REQUEST_CODE_PAUSE_TIMER, intent, 0);
+    }
+
+    protected static PendingIntent getResumeTimerPendingIntent(Context context) {
+        Intent intent = new Intent(context, TimerAlarmReceiver.class);
+        intent.putExtra(EXTRA_RESUME_TIMER, true);
+        return PendingIntent.getBroadcast(context, REQUEST_CODE_RESUME_TIMER, intent, 0);
+    }
 }
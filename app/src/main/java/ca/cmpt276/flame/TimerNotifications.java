@@ -0,0 +1,220 @@
+package ca.cmpt276.flame;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.Settings;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ca.cmpt276.flame.model.ModelEvent;
+import ca.cmpt276.flame.model.ModelEventListener;
+import ca.cmpt276.flame.model.Timeout;
+import ca.cmpt276.flame.model.TimeoutManager;
+
+import static androidx.core.app.NotificationCompat.FLAG_INSISTENT;
+
+/**
+ * TimerNotifications is a singleton class that gets the timer notifications ready ahead of
+ * time, so that the TimerAlarmReceiver can alert the user as soon as the alarm goes off,
+ * even when the alarm had to start the app's process. init() creates the notification
+ * channel and then, on a background thread, decodes the large icon at the size
+ * notifications show it at and builds the finished notification. If the alarm goes off
+ * before that is done, getFinishedNotification() waits for it rather than starting over.
+ *
+ * While the main timeout is running or paused, an ongoing notification shows its countdown
+ * (unless the user has turned it off) with a button to pause or resume it. The countdown is
+ * drawn by the system's chronometer (on Android 7.0 and up), which counts down to the real
+ * finish time, so the app does no work while it is shown: the notification is only posted
+ * again when the TimeoutManager reports that the main timeout's state has changed.
+ */
+public class TimerNotifications implements ModelEventListener {
+    public static final int FINISHED_NOTIFICATION_ID = 0;
+    private static final int COUNTDOWN_NOTIFICATION_ID = 1;
+    private static final String COUNTDOWN_CHANNEL_ID = "NOTIFICATION_CHANNEL_TIMER_COUNTDOWN";
+    private static final int MILLIS_IN_MIN = 60000;
+    private static final int MILLIS_IN_SEC = 1000;
+    private static final long[] VIBRATION_PATTERN = {500, 1000, 500, 1000, 500, 1000};
+    private static final ExecutorService PREPARE_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static TimerNotifications timerNotifications;
+    private final Context context;
+    private Notification finishedNotification;
+
+    // Singleton
+
+    // must be called when the app's process starts (see PracticalParentApplication)
+    public static void init(Context context) {
+        if(timerNotifications == null) {
+            timerNotifications = new TimerNotifications(context.getApplicationContext());
+            timerNotifications.createNotificationChannels();
+            PREPARE_EXECUTOR.execute(timerNotifications::getFinishedNotification);
+            TimeoutManager.getInstance().addListener(timerNotifications);
+            timerNotifications.updateCountdownNotification();
+        }
+    }
+
+    public static TimerNotifications getInstance() {
+        if(timerNotifications == null) {
+            throw new IllegalStateException("TimerNotifications must be initialized before use");
+        }
+
+        return timerNotifications;
+    }
+
+    // Normal class
+
+    private TimerNotifications(Context context) {
+        this.context = context;
+    }
+
+    // inspired by code from: https://developer.android.com/training/notify-user/channels
+    private void createNotificationChannels() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
+
+            NotificationChannel channel = new NotificationChannel(TimerAlarmReceiver.NOTIFICATION_CHANNEL_ID,
+                    context.getString(R.string.timer_notification_channel_name), NotificationManager.IMPORTANCE_HIGH);
+            channel.setDescription(context.getString(R.string.timer_notification_channel_desc));
+            notificationManager.createNotificationChannel(channel);
+
+            // the countdown is silent, since it is posted again whenever the timer is paused or resumed
+            NotificationChannel countdownChannel = new NotificationChannel(COUNTDOWN_CHANNEL_ID,
+                    context.getString(R.string.timer_countdown_channel_name), NotificationManager.IMPORTANCE_LOW);
+            countdownChannel.setDescription(context.getString(R.string.timer_countdown_channel_desc));
+            notificationManager.createNotificationChannel(countdownChannel);
+        }
+    }
+
+    @Override
+    public void onModelEvent(ModelEvent event) {
+        Timeout mainTimeout = TimeoutManager.getInstance().getMainTimeout();
+
+        if(event.getType() == ModelEvent.Type.TIMEOUT_CHANGED && event.getTimeoutId() == mainTimeout.getId()) {
+            updateCountdownNotification();
+        }
+    }
+
+    // shows, changes or removes the countdown to match the main timeout
+    public void updateCountdownNotification() {
+        TimeoutManager timeoutManager = TimeoutManager.getInstance();
+        Timeout mainTimeout = timeoutManager.getMainTimeout();
+        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+
+        if(!timeoutManager.isCountdownNotificationEnabled()
+                || mainTimeout.getTimerState() == TimeoutManager.TimerState.STOPPED) {
+            notificationManager.cancel(COUNTDOWN_NOTIFICATION_ID);
+            return;
+        }
+
+        notificationManager.notify(COUNTDOWN_NOTIFICATION_ID, buildCountdownNotification(mainTimeout));
+    }
+
+    private Notification buildCountdownNotification(Timeout timeout) {
+        PendingIntent contentIntent = PendingIntent.getActivity(context, 0, TimeoutActivity.makeIntent(context), 0);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, COUNTDOWN_CHANNEL_ID)
+                .setSmallIcon(R.drawable.clock_icon)
+                .setContentTitle(context.getString(R.string.timeout))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW);
+
+        if(timeout.getTimerState() == TimeoutManager.TimerState.PAUSED) {
+            PendingIntent resumeIntent = TimerAlarmReceiver.getResumeTimerPendingIntent(context);
+            return builder.setContentText(context.getString(R.string.timer_countdown_paused, formatTime(timeout)))
+                    .setShowWhen(false)
+                    .addAction(0, context.getString(R.string.resume), resumeIntent)
+                    .build();
+        }
+
+        PendingIntent pauseIntent = TimerAlarmReceiver.getPauseTimerPendingIntent(context);
+        builder.setContentText(context.getString(R.string.timer_speed, timeout.getSpeedPercentage()))
+                .addAction(0, context.getString(R.string.pause), pauseIntent);
+
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            // the chronometer runs on the wall clock, so the finish time is moved onto it
+            long millisUntilFinish = timeout.getFinishElapsedRealtime() - SystemClock.elapsedRealtime();
+            Bundle extras = new Bundle();
+            extras.putBoolean(Notification.EXTRA_CHRONOMETER_COUNT_DOWN, true);
+            builder.setWhen(System.currentTimeMillis() + millisUntilFinish)
+                    .setShowWhen(true)
+                    .setUsesChronometer(true)
+                    .addExtras(extras);
+        } else {
+            builder.setShowWhen(false);
+        }
+
+        return builder.build();
+    }
+
+    private static String formatTime(Timeout timeout) {
+        long millisRemaining = timeout.getMillisRemaining();
+        long minRemaining = millisRemaining / MILLIS_IN_MIN;
+        long secRemaining = (millisRemaining % MILLIS_IN_MIN) / MILLIS_IN_SEC;
+        return String.format(Locale.getDefault(), "%d:%02d", minRemaining, secRemaining);
+    }
+
+    // the same notification is posted every time a timer finishes
+    public synchronized Notification getFinishedNotification() {
+        if(finishedNotification == null) {
+            finishedNotification = buildFinishedNotification();
+        }
+
+        return finishedNotification;
+    }
+
+    private Notification buildFinishedNotification() {
+        String channelId = TimerAlarmReceiver.NOTIFICATION_CHANNEL_ID;
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, channelId)
+                .setSmallIcon(R.drawable.clock_icon)
+                .setLargeIcon(decodeLargeIcon())
+                .setContentTitle(context.getString(R.string.timer_notification_title))
+                .setContentText(context.getString(R.string.timer_notification_desc))
+                .setContentIntent(TimerAlarmReceiver.getCancelNotificationPendingIntent(context))
+                .setPriority(NotificationCompat.PRIORITY_MAX)
+                .setVibrate(VIBRATION_PATTERN)
+                .setSound(Settings.System.DEFAULT_ALARM_ALERT_URI);
+
+        Notification notification = builder.build();
+        notification.flags = FLAG_INSISTENT;
+        return notification;
+    }
+
+    // the app icon is much larger than notifications show it, so it is subsampled while decoding and then scaled to fit
+    private Bitmap decodeLargeIcon() {
+        Resources resources = context.getResources();
+        int width = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        int height = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, R.drawable.practical_parent_icon, options);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while(options.outWidth / (options.inSampleSize * 2) >= width
+                && options.outHeight / (options.inSampleSize * 2) >= height) {
+            options.inSampleSize *= 2;
+        }
+
+        Bitmap icon = BitmapFactory.decodeResource(resources, R.drawable.practical_parent_icon, options);
+        if(icon == null || (icon.getWidth() == width && icon.getHeight() == height)) {
+            return icon;
+        }
+
+        return Bitmap.createScaledBitmap(icon, width, height, true);
+    }
+}
@@ -1,5 +1,11 @@
 package ca.cmpt276.flame.model;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
 /**
  * BreathsManager is a singleton that manages saving state for the Take a Breath activity
  */
@@ -44,4 +50,35 @@ public class BreathsManager {
     private void persistToSharedPrefs() {
         PrefsManager.persistObj(SHARED_PREFS_KEY, this);
     }
+
+    /**
+     * GsonAdapter reads and writes the BreathsManager without using reflection
+     */
+    protected static class GsonAdapter extends TypeAdapter<BreathsManager> {
+        private static final String JSON_NUM_BREATHS = "numBreaths";
+
+        @Override
+        public void write(JsonWriter out, BreathsManager manager) throws IOException {
+            out.beginObject();
+            out.name(JSON_NUM_BREATHS).value(manager.numBreaths);
+            out.endObject();
+        }
+
+        @Override
+        public BreathsManager read(JsonReader in) throws IOException {
+            BreathsManager manager = new BreathsManager();
+
+            in.beginObject();
+            while(in.hasNext()) {
+                if(in.nextName().equals(JSON_NUM_BREATHS)) {
+                    manager.numBreaths = in.nextInt();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return manager;
+        }
+    }
 }
@@ -1,13 +1,14 @@
 package ca.cmpt276.flame.model;
 
 import android.content.Context;
-import android.content.ContextWrapper;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 import ca.cmpt276.flame.R;
 
@@ -21,15 +22,29 @@ import ca.cmpt276.flame.R;
  */
 public class Child {
     public static final long NONE = 0L;
+    // the widths and heights (in pixels) that profile images are saved at; IMAGE_SIZE is the full image
+    public static final int SMALL_IMAGE_SIZE = 48;
+    public static final int MEDIUM_IMAGE_SIZE = 96;
+    public static final int IMAGE_SIZE = 150;
     private final long id;
     private String name;
-    private boolean hasImage;
+    // the image's hash in the ProfileImageStore (null if the child has no image); it changes whenever the image does
+    private String imageHash;
+    // an image saved by an older version of the app, which the ProfileImageStore has yet to take over
+    private boolean hasLegacyImage;
 
     protected Child(String name) {
         id = ChildrenManager.getInstance().getNextChildId();
         setName(name);
     }
 
+    private Child(long id, String name, String imageHash, boolean hasLegacyImage) {
+        this.id = id;
+        this.name = name;
+        this.imageHash = imageHash;
+        this.hasLegacyImage = hasLegacyImage;
+    }
+
     public long getId() {
         return id;
     }
@@ -51,44 +66,125 @@ public class Child {
     }
 
     public boolean hasImage() {
-        return hasImage;
+        return imageHash != null;
     }
 
-    protected void setHasImage() {
-        this.hasImage = true;
+    public String getImageHash() {
+        return imageHash;
     }
 
-    protected void removeImage(Context context) {
-        this.getImageFile(context).delete();
-        this.hasImage = false;
+    // a null hash removes the image
+    protected void setImageHash(String imageHash) {
+        this.imageHash = imageHash;
+        this.hasLegacyImage = false;
     }
 
-    public File getImageFile(Context context) {
-        ContextWrapper cw = new ContextWrapper(context);
-        File directory = cw.getDir("childImageDir", Context.MODE_PRIVATE);
-        return new File(directory, this.getId() + "profile.jpg");
+    protected boolean hasLegacyImage() {
+        return hasLegacyImage;
     }
 
-    public Bitmap getImageBitmap(Context context) {
-        Bitmap childImage = null;
-
-        if(this.hasImage) {
-            try {
-                File f = this.getImageFile(context);
-                childImage = BitmapFactory.decodeStream(new FileInputStream(f));
-            } catch (FileNotFoundException e) {
-                // use default image below
-            }
+    // the smallest saved size that is at least the requested size (in pixels), so images are never scaled up
+    public static int getNearestImageSize(int requestedSize) {
+        if(requestedSize <= SMALL_IMAGE_SIZE) {
+            return SMALL_IMAGE_SIZE;
+        } else if(requestedSize <= MEDIUM_IMAGE_SIZE) {
+            return MEDIUM_IMAGE_SIZE;
         }
 
-        if(childImage == null) {
-            childImage = getDefaultImageBitmap(context);
+        return IMAGE_SIZE;
+    }
+
+    // may return null if the child has no image
+    public File getImageFile() {
+        return getImageFile(IMAGE_SIZE);
+    }
+
+    // the image saved at the size nearest the requested one; may return null if the child has no image
+    public File getImageFile(int requestedSize) {
+        if(imageHash == null) {
+            return null;
         }
 
-        return childImage;
+        return ProfileImageStore.getInstance().getFile(imageHash, getNearestImageSize(requestedSize));
+    }
+
+    // the returned bitmap is shared through the ChildImageCache, so it must not be modified or recycled
+    public Bitmap getImageBitmap(Context context) {
+        return getImageBitmap(context, IMAGE_SIZE);
+    }
+
+    public Bitmap getImageBitmap(Context context, int requestedSize) {
+        return ChildImageCache.getInstance().getChildBitmap(this, context, getNearestImageSize(requestedSize));
     }
 
     public static Bitmap getDefaultImageBitmap(Context context) {
-        return BitmapFactory.decodeResource(context.getResources(), R.drawable.default_child);
+        return ChildImageCache.getInstance().getDefaultBitmap(context, IMAGE_SIZE);
+    }
+
+    // returns null if the image file could not be read
+    protected Bitmap decodeImageBitmap(int imageSize) {
+        return ProfileImageDecoder.decodeFile(this.getImageFile(imageSize), imageSize);
+    }
+
+    protected static Bitmap decodeDefaultImageBitmap(Context context, int imageSize) {
+        return ProfileImageDecoder.decodeResource(context.getResources(), R.drawable.default_child, imageSize);
+    }
+
+    /**
+     * GsonAdapter reads and writes a Child without using reflection. The legacy image
+     * flag is written back until the image has been moved into the ProfileImageStore,
+     * so a migration that fails can be tried again on the next launch.
+     */
+    protected static class GsonAdapter extends TypeAdapter<Child> {
+        private static final String JSON_ID = "id";
+        private static final String JSON_NAME = "name";
+        private static final String JSON_IMAGE_HASH = "imageHash";
+        // written by older versions of the app, which saved each image as "<id>profile.jpg"
+        private static final String JSON_LEGACY_HAS_IMAGE = "hasImage";
+
+        @Override
+        public void write(JsonWriter out, Child child) throws IOException {
+            out.beginObject();
+            out.name(JSON_ID).value(child.id);
+            out.name(JSON_NAME).value(child.name);
+            if(child.imageHash != null) {
+                out.name(JSON_IMAGE_HASH).value(child.imageHash);
+            }
+            if(child.hasLegacyImage) {
+                out.name(JSON_LEGACY_HAS_IMAGE).value(true);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Child read(JsonReader in) throws IOException {
+            long id = NONE;
+            String name = null;
+            String imageHash = null;
+            boolean hasLegacyImage = false;
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case JSON_ID:
+                        id = in.nextLong();
+                        break;
+                    case JSON_NAME:
+                        name = in.nextString();
+                        break;
+                    case JSON_IMAGE_HASH:
+                        imageHash = in.nextString();
+                        break;
+                    case JSON_LEGACY_HAS_IMAGE:
+                        hasLegacyImage = in.nextBoolean();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new Child(id, name, imageHash, hasLegacyImage && imageHash == null);
+        }
     }
 }
@@ -0,0 +1,130 @@
+package ca.cmpt276.flame.model;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+/**
+ * ChildImageCache is a singleton, app-wide LRU cache of decoded child profile images,
+ * so that lists which show the same child over and over only read each image from
+ * disk once. Images are keyed by their hash in the ProfileImageStore and their size, so
+ * a changed image is never served from the cache (and children sharing an image share
+ * one bitmap). Sizes are one of those given by Child.getNearestImageSize(). The cache is
+ * bounded by a fraction of the heap and is emptied (or trimmed) when the system asks the
+ * app to release memory. It may be used from any thread.
+ */
+public class ChildImageCache implements ComponentCallbacks2 {
+    private static final int BYTES_PER_KILOBYTE = 1024;
+    private static final int HEAP_FRACTION = 8;
+    private static final String DEFAULT_IMAGE_KEY = "default";
+    private static final char KEY_SEPARATOR = ':';
+    private static ChildImageCache childImageCache;
+    private final LruCache<String, Bitmap> bitmaps;
+    private boolean isRegistered = false;
+
+    // Singleton
+
+    // synchronized, since the loader threads may ask for the cache before the main thread has
+    public static synchronized ChildImageCache getInstance() {
+        if(childImageCache == null) {
+            childImageCache = new ChildImageCache();
+        }
+
+        return childImageCache;
+    }
+
+    // Normal class
+
+    private ChildImageCache() {
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / BYTES_PER_KILOBYTE / HEAP_FRACTION);
+
+        bitmaps = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return Math.max(1, bitmap.getByteCount() / BYTES_PER_KILOBYTE);
+            }
+        };
+    }
+
+    // lets the system tell the cache when memory is low; only registers once
+    public void register(Context context) {
+        if(!isRegistered) {
+            context.getApplicationContext().registerComponentCallbacks(this);
+            isRegistered = true;
+        }
+    }
+
+    // may read the image from disk, so it is best called off the main thread (see ChildImageLoader)
+    public Bitmap getChildBitmap(Child child, Context context, int imageSize) {
+        if(!child.hasImage()) {
+            return getDefaultBitmap(context, imageSize);
+        }
+
+        String key = getImageKey(child, imageSize);
+        Bitmap bitmap = bitmaps.get(key);
+
+        if(bitmap == null) {
+            bitmap = child.decodeImageBitmap(imageSize);
+            if(bitmap == null) {
+                // the image file is missing, so fall back to the default image (which is cached on its own)
+                return getDefaultBitmap(context, imageSize);
+            }
+            bitmaps.put(key, bitmap);
+        }
+
+        return bitmap;
+    }
+
+    // returns null if the child's image has not been decoded at this size yet
+    public Bitmap getCachedChildBitmap(Child child, int imageSize) {
+        return bitmaps.get(getImageKey(child, imageSize));
+    }
+
+    // identifies the current version of the child's image at this size; it changes whenever the image does
+    public String getImageKey(Child child, int imageSize) {
+        if(!child.hasImage()) {
+            return getDefaultImageKey(imageSize);
+        }
+
+        return child.getImageHash() + KEY_SEPARATOR + imageSize;
+    }
+
+    public Bitmap getDefaultBitmap(Context context, int imageSize) {
+        String key = getDefaultImageKey(imageSize);
+        Bitmap bitmap = bitmaps.get(key);
+
+        if(bitmap == null) {
+            bitmap = Child.decodeDefaultImageBitmap(context, imageSize);
+            bitmaps.put(key, bitmap);
+        }
+
+        return bitmap;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if(level >= TRIM_MEMORY_MODERATE) {
+            bitmaps.evictAll();
+        } else if(level >= TRIM_MEMORY_RUNNING_LOW) {
+            bitmaps.trimToSize(bitmaps.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        bitmaps.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        // decoded images do not depend on the configuration
+    }
+
+    private static String getDefaultImageKey(int imageSize) {
+        return DEFAULT_IMAGE_KEY + KEY_SEPARATOR + imageSize;
+    }
+}
@@ -1,28 +1,41 @@
 package ca.cmpt276.flame.model;
 
-import android.content.Context;
-
 import androidx.annotation.NonNull;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 
 /**
  * ChildrenManager is a singleton that manages multiple Child objects.
  * It is saved to SharedPreferences so that children persist when the
- * app is closed and restarted.
+ * app is closed and restarted. Each child is saved as its own record,
+ * so changing one child does not rewrite all the others. Each change is
+ * sent as a ModelEvent to the listeners added with addListener().
  */
 public class ChildrenManager implements Iterable<Child> {
     private static final String SHARED_PREFS_KEY = "SHARED_PREFS_CHILDREN_MANAGER";
+    private static final String RECORDS_TABLE = "children";
     private static ChildrenManager childrenManager;
     private long nextChildId = 1L;
     private final LinkedHashMap<Long, Child> children = new LinkedHashMap<>();
+    private final ModelEventDispatcher eventDispatcher = new ModelEventDispatcher();
+
+    // older versions of the app saved every child inside the ChildrenManager JSON
+    private LinkedHashMap<Long, Child> legacyChildren;
 
     // Singleton
 
     public static ChildrenManager getInstance() {
         if(childrenManager == null) {
             childrenManager = (ChildrenManager) PrefsManager.restoreObj(SHARED_PREFS_KEY, ChildrenManager.class);
+            childrenManager.restoreChildren();
+            ProfileImageStore.getInstance().load(childrenManager);
         }
 
         return childrenManager;
@@ -34,10 +47,28 @@ public class ChildrenManager implements Iterable<Child> {
         // singleton: prevent other classes from creating new ones
     }
 
+    private void restoreChildren() {
+        for(Child child : PrefsManager.restoreRecords(RECORDS_TABLE, Child.class)) {
+            children.put(child.getId(), child);
+        }
+
+        if(legacyChildren != null) {
+            // one-time migration: save each child as its own record, then drop them from the JSON
+            for(Child child : legacyChildren.values()) {
+                children.put(child.getId(), child);
+                persistChild(child);
+            }
+            legacyChildren = null;
+            persistToSharedPrefs();
+        }
+    }
+
     public Child addChild(String name) {
         Child child = new Child(name);
         children.put(child.getId(), child);
+        persistChild(child);
         persistToSharedPrefs();
+        eventDispatcher.dispatch(ModelEvent.forChild(ModelEvent.Type.CHILD_ADDED, child.getId()));
         return child;
     }
 
@@ -53,33 +84,64 @@ public class ChildrenManager implements Iterable<Child> {
     public void renameChild(Child child, String name) {
         checkValidChild(child);
         child.setName(name);
-        persistToSharedPrefs();
+        persistChild(child);
+        eventDispatcher.dispatch(ModelEvent.forChild(ModelEvent.Type.CHILD_RENAMED, child.getId()));
     }
 
-    public void setChildHasImage(Child child) {
+    // moves an image staged by the ProfileImageImporter into the ProfileImageStore and gives it to the child
+    public void setChildImage(Child child, File stagedImage) throws IOException {
         checkValidChild(child);
-        child.setHasImage();
-        persistToSharedPrefs();
+        ProfileImageStore imageStore = ProfileImageStore.getInstance();
+        String oldImageHash = child.getImageHash();
+        child.setImageHash(imageStore.add(stagedImage));
+        imageStore.release(oldImageHash);
+        persistChild(child);
+        eventDispatcher.dispatch(ModelEvent.forChild(ModelEvent.Type.CHILD_IMAGE_CHANGED, child.getId()));
     }
 
-    public void removeChildImage(Child child, Context context) {
+    public void removeChildImage(Child child) {
         checkValidChild(child);
-        child.removeImage(context);
-        persistToSharedPrefs();
+        ProfileImageStore.getInstance().release(child.getImageHash());
+        child.setImageHash(null);
+        persistChild(child);
+        eventDispatcher.dispatch(ModelEvent.forChild(ModelEvent.Type.CHILD_IMAGE_CHANGED, child.getId()));
     }
 
-    public void removeChild(Child child, Context context) {
+    // called by the ProfileImageStore once it has taken over (or failed to read) an image saved by an older version
+    protected void migrateLegacyImage(Child child, String imageHash) {
+        checkValidChild(child);
+        child.setImageHash(imageHash);
+        persistChild(child);
+    }
+
+    public void removeChild(Child child) {
         checkValidChild(child);
         FlipManager.getInstance().removeChildFromHistory(child.getId());
-        child.removeImage(context);
+        FlipManager.getInstance().removeChildFromQueue(child.getId());
+        TaskManager.getInstance().removeChildFromQueues(child.getId());
+        ProfileImageStore.getInstance().release(child.getImageHash());
         children.remove(child.getId());
-        persistToSharedPrefs();
+        PrefsManager.removeRecord(RECORDS_TABLE, child.getId());
+        eventDispatcher.dispatch(ModelEvent.forChild(ModelEvent.Type.CHILD_REMOVED, child.getId()));
+    }
+
+    public void addListener(ModelEventListener listener) {
+        eventDispatcher.addListener(listener);
+    }
+
+    public void removeListener(ModelEventListener listener) {
+        eventDispatcher.removeListener(listener);
     }
 
     protected long getNextChildId() {
         return nextChildId++;
     }
 
+    // IDs are handed out in increasing order, so any child added later has a larger ID than this
+    protected long getLastChildId() {
+        return nextChildId - 1;
+    }
+
     private void checkValidChild(Child child) {
         if(child == null) {
             throw new IllegalArgumentException("ChildrenManager expects non-null child");
@@ -90,6 +152,10 @@ public class ChildrenManager implements Iterable<Child> {
         }
     }
 
+    private void persistChild(Child child) {
+        PrefsManager.persistRecord(RECORDS_TABLE, child.getId(), child);
+    }
+
     private void persistToSharedPrefs() {
         PrefsManager.persistObj(SHARED_PREFS_KEY, this);
     }
@@ -99,4 +165,50 @@ public class ChildrenManager implements Iterable<Child> {
     public Iterator<Child> iterator() {
         return children.values().iterator();
     }
+
+    /**
+     * GsonAdapter reads and writes the ChildrenManager without using reflection.
+     * Only the next child ID is written, since each child is saved as its own record.
+     */
+    protected static class GsonAdapter extends TypeAdapter<ChildrenManager> {
+        private static final String JSON_NEXT_CHILD_ID = "nextChildId";
+        private static final String JSON_LEGACY_CHILDREN = "children";
+        private final Child.GsonAdapter childAdapter = new Child.GsonAdapter();
+
+        @Override
+        public void write(JsonWriter out, ChildrenManager manager) throws IOException {
+            out.beginObject();
+            out.name(JSON_NEXT_CHILD_ID).value(manager.nextChildId);
+            out.endObject();
+        }
+
+        @Override
+        public ChildrenManager read(JsonReader in) throws IOException {
+            ChildrenManager manager = new ChildrenManager();
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case JSON_NEXT_CHILD_ID:
+                        manager.nextChildId = in.nextLong();
+                        break;
+                    case JSON_LEGACY_CHILDREN:
+                        manager.legacyChildren = new LinkedHashMap<>();
+                        in.beginObject();
+                        while(in.hasNext()) {
+                            in.nextName(); // the key is the child's ID, which is also inside the child
+                            Child child = childAdapter.read(in);
+                            manager.legacyChildren.put(child.getId(), child);
+                        }
+                        in.endObject();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return manager;
+        }
+    }
 }
@@ -1,19 +1,32 @@
 package ca.cmpt276.flame.model;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 /**
  * A ChildrenQueue represents a queue of children. It is used for both flipping
  * coins (deciding who flips next) and within each task to decide who gets to go
  * next. It is possible to override the next child (i.e. in the FlipCoinActivity).
- * This does not use an actual Queue internally, but rather orders the children
- * based upon history, which works much better if children are added or deleted.
+ * Children who have never had a turn come first (in the order they were added to
+ * the app), followed by the other children in the order of their last turn. Both
+ * groups are kept in order as turns are taken, so getting the next child and taking
+ * a turn do not depend on the number of children. Children added to the app are
+ * picked up by ID the next time the queue is used, and deleted children are removed
+ * straight away by the ChildrenManager (see removeChild()), so each child appears at
+ * most once and only while it exists.
  */
 public class ChildrenQueue {
     private static final long NO_OVERRIDE = -1;
-    private final List<Long> history = new ArrayList<>();
+    private final LongOrderedSet neverTurned = new LongOrderedSet();
+    // children who have had a turn, least recent first; this is what is saved
+    private final LongOrderedSet turned = new LongOrderedSet();
+    // every child with an ID up to this one has been put in the queue
+    private long lastKnownChildId = Child.NONE;
     private long overrideNextChildId = NO_OVERRIDE;
 
     protected Child getNext() {
@@ -21,12 +34,14 @@ public class ChildrenQueue {
             return ChildrenManager.getInstance().getChild(overrideNextChildId);
         }
 
-        List<Child> queue = getQueue();
-        if(queue.isEmpty()) {
-            return null;
-        } else {
-            return queue.get(0);
+        addNewChildren();
+        if(!neverTurned.isEmpty()) {
+            return ChildrenManager.getInstance().getChild(neverTurned.first());
+        } else if(!turned.isEmpty()) {
+            return ChildrenManager.getInstance().getChild(turned.first());
         }
+
+        return null;
     }
 
     protected void setOverride(Child child) {
@@ -45,8 +60,9 @@ public class ChildrenQueue {
         Child child = getNext();
 
         if(child != null) {
-            history.remove(child.getId());
-            history.add(child.getId());
+            neverTurned.remove(child.getId());
+            turned.remove(child.getId());
+            turned.add(child.getId());
         }
 
         clearOverride();
@@ -56,34 +72,104 @@ public class ChildrenQueue {
     // front of the list (i.e. index 0) corresponds to the front of the queue
     protected List<Child> getQueue() {
         ChildrenManager childrenManager = ChildrenManager.getInstance();
+        addNewChildren();
+
+        // if an override has been put in place, that child goes to the front of the queue
+        Child overrideChild = childrenManager.getChild(overrideNextChildId);
 
-        // add the children in the order they were added to the app
         List<Child> queue = new ArrayList<>();
-        for(Child child : childrenManager) {
-            queue.add(child);
+        if(overrideChild != null) {
+            queue.add(overrideChild);
         }
+        addChildren(queue, neverTurned, overrideChild);
+        addChildren(queue, turned, overrideChild);
 
-        // then rearrange the children according to the history
-        Iterator<Long> histItr = history.iterator();
-        while(histItr.hasNext()) {
-            Child child = childrenManager.getChild(histItr.next());
+        return queue;
+    }
 
-            if(child != null) {
-                queue.remove(child);
-                queue.add(child);
-            } else {
-                histItr.remove();
+    // returns true if the child was in the queue; should only be called (through its owner) by the ChildrenManager
+    protected boolean removeChild(long childId) {
+        boolean wasInQueue = neverTurned.remove(childId);
+        return turned.remove(childId) || wasInQueue;
+    }
+
+    // children are added to the app with increasing IDs, so only IDs after the last known one need checking
+    private void addNewChildren() {
+        ChildrenManager childrenManager = ChildrenManager.getInstance();
+        long lastChildId = childrenManager.getLastChildId();
+
+        if(lastKnownChildId == Child.NONE) {
+            // the first time the queue is used, drop children that were deleted before it was restored
+            for(long childId : turned.toArray()) {
+                if(childrenManager.getChild(childId) == null) {
+                    turned.remove(childId);
+                }
             }
         }
 
-        // if an override has been put in place, move that child to the front of the queue
-        Child overrideChild = childrenManager.getChild(overrideNextChildId);
+        for(long childId = lastKnownChildId + 1; childId <= lastChildId; childId++) {
+            if(childrenManager.getChild(childId) != null && !turned.contains(childId)) {
+                neverTurned.add(childId);
+            }
+        }
 
-        if(overrideChild != null) {
-            queue.remove(overrideChild);
-            queue.add(0, overrideChild);
+        lastKnownChildId = Math.max(lastKnownChildId, lastChildId);
+    }
+
+    private static void addChildren(List<Child> queue, LongOrderedSet childIds, Child skipChild) {
+        ChildrenManager childrenManager = ChildrenManager.getInstance();
+
+        for(long childId : childIds.toArray()) {
+            Child child = childrenManager.getChild(childId);
+            if(child != skipChild) {
+                queue.add(child);
+            }
         }
+    }
 
-        return queue;
+    /**
+     * GsonAdapter reads and writes a ChildrenQueue without using reflection
+     */
+    protected static class GsonAdapter extends TypeAdapter<ChildrenQueue> {
+        private static final String JSON_HISTORY = "history";
+        private static final String JSON_OVERRIDE_NEXT_CHILD_ID = "overrideNextChildId";
+
+        @Override
+        public void write(JsonWriter out, ChildrenQueue queue) throws IOException {
+            out.beginObject();
+            out.name(JSON_HISTORY).beginArray();
+            for(long childId : queue.turned.toArray()) {
+                out.value(childId);
+            }
+            out.endArray();
+            out.name(JSON_OVERRIDE_NEXT_CHILD_ID).value(queue.overrideNextChildId);
+            out.endObject();
+        }
+
+        @Override
+        public ChildrenQueue read(JsonReader in) throws IOException {
+            ChildrenQueue queue = new ChildrenQueue();
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case JSON_HISTORY:
+                        in.beginArray();
+                        while(in.hasNext()) {
+                            queue.turned.add(in.nextLong());
+                        }
+                        in.endArray();
+                        break;
+                    case JSON_OVERRIDE_NEXT_CHILD_ID:
+                        queue.overrideNextChildId = in.nextLong();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return queue;
+        }
     }
 }
@@ -0,0 +1,162 @@
+package ca.cmpt276.flame.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FlipHistoryCursor walks the coin flip history from the newest entry to the oldest,
+ * one page at a time, optionally only returning the flips of a single child. It is
+ * obtained from the FlipManager, and lets a screen show the history without copying
+ * all of it up front. A single child's flips are read through the FlipHistoryIndex,
+ * so other children's entries are never looked at. Tombstones (the null slots left
+ * behind by a removed child) are skipped.
+ *
+ * The cursor remembers the oldest entry it has returned. When the FlipManager compacts
+ * its history the positions change, so the cursor seeks back to that entry before
+ * reading its next page; no entry is skipped or returned twice.
+ */
+public class FlipHistoryCursor {
+    public static final int DEFAULT_PAGE_SIZE = 30;
+
+    private final FlipManager flipManager;
+    private final List<FlipHistoryEntry> history;
+    private final boolean isChildOnly;
+    private final long childId;
+    private final int pageSize;
+    private IntList childPositions;
+    private int historyGeneration;
+    private int remaining;
+
+    // entries with this session ID or a newer one have already been returned (or were flipped after the cursor was made)
+    private long oldestSessionId = FlipHistoryEntry.getNextSessionId();
+
+    // walks the whole history
+    protected FlipHistoryCursor(FlipManager flipManager, int pageSize) {
+        this(flipManager, false, Child.NONE, pageSize);
+    }
+
+    // only walks the flips made by one child
+    protected FlipHistoryCursor(FlipManager flipManager, long childId, int pageSize) {
+        this(flipManager, true, childId, pageSize);
+    }
+
+    private FlipHistoryCursor(FlipManager flipManager, boolean isChildOnly, long childId, int pageSize) {
+        if(pageSize <= 0) {
+            throw new IllegalArgumentException("FlipHistoryCursor expects a page size greater than 0");
+        }
+
+        this.flipManager = flipManager;
+        this.history = flipManager.getHistory();
+        this.isChildOnly = isChildOnly;
+        this.childId = childId;
+        this.pageSize = pageSize;
+        loadPositions();
+        this.remaining = getNumEntries();
+    }
+
+    public boolean hasNextPage() {
+        rebaseIfCompacted();
+        skipTombstones();
+        return remaining > 0;
+    }
+
+    // returns up to pageSize entries, newest first; empty once the oldest entry has been returned
+    public List<FlipHistoryEntry> nextPage() {
+        rebaseIfCompacted();
+        skipTombstones();
+        List<FlipHistoryEntry> page = new ArrayList<>(Math.min(pageSize, remaining));
+
+        while(page.size() < pageSize && remaining > 0) {
+            remaining--;
+            FlipHistoryEntry entry = getEntry(remaining);
+            if(entry != null) {
+                page.add(entry);
+                oldestSessionId = entry.getSessionId();
+            }
+        }
+
+        return page;
+    }
+
+    // moves the cursor so that its next page starts with the newest entry older than the given one
+    public void seekPast(FlipHistoryEntry entry) {
+        if(entry == null) {
+            throw new IllegalArgumentException("FlipHistoryCursor requires an entry to seek past");
+        }
+
+        oldestSessionId = entry.getSessionId();
+        seekToOldestSessionId();
+    }
+
+    private void loadPositions() {
+        historyGeneration = flipManager.getHistoryGeneration();
+        if(isChildOnly) {
+            childPositions = flipManager.getChildPositions(childId);
+        }
+    }
+
+    // the history was compacted since the positions were read, so they have to be found again
+    private void rebaseIfCompacted() {
+        if(historyGeneration != flipManager.getHistoryGeneration()) {
+            loadPositions();
+            seekToOldestSessionId();
+        }
+    }
+
+    // session IDs follow the order of the history, so everything from oldestSessionId on is at the end of it
+    private void seekToOldestSessionId() {
+        int endPos = history.size();
+        while(endPos > 0 && (history.get(endPos - 1) == null
+                || history.get(endPos - 1).getSessionId() >= oldestSessionId)) {
+            endPos--;
+        }
+
+        if(!isChildOnly) {
+            remaining = endPos;
+            return;
+        }
+
+        // the child's positions are sorted, so find how many of them come before endPos
+        int low = 0;
+        int high = childPositions.size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(childPositions.get(mid) < endPos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        remaining = low;
+    }
+
+    private int getNumEntries() {
+        if(!isChildOnly) {
+            return history.size();
+        }
+
+        return childPositions.size();
+    }
+
+    // returns null for a tombstone, or for a position that no longer exists
+    private FlipHistoryEntry getEntry(int index) {
+        int position = index;
+        if(isChildOnly) {
+            position = childPositions.get(index);
+        }
+
+        if(position >= history.size()) {
+            return null;
+        }
+
+        return history.get(position);
+    }
+
+    // entries may have been removed (e.g. a child was deleted) since the cursor was created
+    private void skipTombstones() {
+        remaining = Math.min(remaining, getNumEntries());
+        while(remaining > 0 && getEntry(remaining - 1) == null) {
+            remaining--;
+        }
+    }
+}
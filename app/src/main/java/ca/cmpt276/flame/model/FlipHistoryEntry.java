@@ -1,6 +1,14 @@
 package ca.cmpt276.flame.model;
 
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * FLipHistoryEntry manages a coin flip history entry. It contains the UUID of
@@ -8,16 +16,24 @@ import java.util.Date;
  * the child won or not and the date of the flip.
  */
 public class FlipHistoryEntry {
+    // entries may be restored off the main thread (e.g. while migrating storage)
+    private static final AtomicLong NEXT_SESSION_ID = new AtomicLong(1L);
+    private final long sessionId = NEXT_SESSION_ID.getAndIncrement();
     private final long childId;
     private final FlipManager.CoinSide result;
-    private final Boolean won;
-    private final Date date;
+    private final boolean won;
+    private final long dateMillis;
+
+    public FlipHistoryEntry(long childId, FlipManager.CoinSide result, boolean won) {
+        this(childId, result, won, System.currentTimeMillis());
+    }
 
-    public FlipHistoryEntry(long childId, FlipManager.CoinSide result, Boolean won) {
+    // used when restoring an entry that was recorded earlier
+    protected FlipHistoryEntry(long childId, FlipManager.CoinSide result, boolean won, long dateMillis) {
         this.childId = childId;
         this.result = result;
         this.won = won;
-        this.date = new Date();
+        this.dateMillis = dateMillis;
     }
 
     // may return null if no child associated with the flip
@@ -29,11 +45,84 @@ public class FlipHistoryEntry {
         return result;
     }
 
-    public Boolean wasWon() {
+    public boolean wasWon() {
         return won;
     }
 
     public Date getDate() {
-        return date;
+        return new Date(dateMillis);
+    }
+
+    public long getDateMillis() {
+        return dateMillis;
+    }
+
+    // unique among the entries created since the app started (e.g. for stable list IDs); it is not saved.
+    // the history is restored oldest first and new flips are appended, so the IDs also follow the history's order
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    // every entry created so far has a smaller session ID
+    protected static long getNextSessionId() {
+        return NEXT_SESSION_ID.get();
+    }
+
+    /**
+     * GsonAdapter reads and writes a FlipHistoryEntry without using reflection.
+     * The date is written as milliseconds since the epoch, but dates written by
+     * older versions of the app (as formatted strings) can still be read.
+     */
+    protected static class GsonAdapter extends TypeAdapter<FlipHistoryEntry> {
+        private static final String JSON_CHILD_ID = "childId";
+        private static final String JSON_RESULT = "result";
+        private static final String JSON_WON = "won";
+        private static final String JSON_DATE = "date";
+        private static final TypeAdapter<Date> LEGACY_DATE_ADAPTER = new Gson().getAdapter(Date.class);
+
+        @Override
+        public void write(JsonWriter out, FlipHistoryEntry entry) throws IOException {
+            out.beginObject();
+            out.name(JSON_CHILD_ID).value(entry.childId);
+            out.name(JSON_RESULT).value(entry.result.name());
+            out.name(JSON_WON).value(entry.won);
+            out.name(JSON_DATE).value(entry.dateMillis);
+            out.endObject();
+        }
+
+        @Override
+        public FlipHistoryEntry read(JsonReader in) throws IOException {
+            long childId = Child.NONE;
+            FlipManager.CoinSide result = FlipManager.CoinSide.TAILS;
+            boolean won = false;
+            long dateMillis = 0;
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case JSON_CHILD_ID:
+                        childId = in.nextLong();
+                        break;
+                    case JSON_RESULT:
+                        result = FlipManager.CoinSide.valueOf(in.nextString());
+                        break;
+                    case JSON_WON:
+                        won = in.nextBoolean();
+                        break;
+                    case JSON_DATE:
+                        if(in.peek() == JsonToken.NUMBER) {
+                            dateMillis = in.nextLong();
+                        } else {
+                            dateMillis = LEGACY_DATE_ADAPTER.read(in).getTime();
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new FlipHistoryEntry(childId, result, won, dateMillis);
+        }
     }
 }
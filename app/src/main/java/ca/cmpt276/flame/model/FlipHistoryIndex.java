@@ -0,0 +1,44 @@
+package ca.cmpt276.flame.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FlipHistoryIndex is a secondary index over the FlipManager's history. For every
+ * child it keeps the positions of that child's entries (oldest first), so that
+ * questions about one child only touch that child's entries.
+ * It is not persisted: it is rebuilt from the history when the app starts.
+ */
+public class FlipHistoryIndex {
+    private final Map<Long, IntList> childPositions = new HashMap<>();
+
+    protected void add(FlipHistoryEntry entry, int position) {
+        IntList positions = childPositions.get(entry.getChildId());
+        if(positions == null) {
+            positions = new IntList();
+            childPositions.put(entry.getChildId(), positions);
+        }
+
+        positions.add(position);
+    }
+
+    protected void rebuild(List<FlipHistoryEntry> history) {
+        childPositions.clear();
+        for(int i = 0; i < history.size(); i++) {
+            if(history.get(i) != null) {
+                add(history.get(i), i);
+            }
+        }
+    }
+
+    // drops the child from the index, returning the positions its entries had (or null if it never flipped)
+    protected IntList removeChild(long childId) {
+        return childPositions.remove(childId);
+    }
+
+    // returns the positions of the child's entries, oldest first, or null if the child never flipped
+    protected IntList getPositions(long childId) {
+        return childPositions.get(childId);
+    }
+}
@@ -0,0 +1,329 @@
+package ca.cmpt276.flame.model;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * FlipHistoryJournal is the FlipHistoryStore of the SharedPrefsBackend. It persists the
+ * coin flip history as an append-only file so that recording a flip only writes that single
+ * entry, instead of re-serializing the whole history into SharedPreferences. Restoring
+ * replays the journal. Once the dead records outnumber the live entries, the journal is
+ * compacted by rewriting it with only the live entries.
+ *
+ * The journal is a versioned binary file: a header (magic + version) followed by records.
+ * Each record starts with a byte holding its type and, for a flip, the result and whether
+ * it was won. A flip then has the child ID as a varint and the date as a varint of the
+ * (zigzag encoded) milliseconds since the previous flip. A removal record (for a deleted
+ * child) only has the child ID. Journals written in the older one-JSON-entry-per-line
+ * format are still read, and are converted on first restore.
+ *
+ * The history is restored on the main thread but written on PrefsManager's write thread,
+ * so every public method holds the journal's lock while it reads or changes its state.
+ */
+public class FlipHistoryJournal implements FlipHistoryStore {
+    private static final String JOURNAL_FILE_NAME = "flip_history.journal";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int MIN_DEAD_RECORDS_TO_COMPACT = 64;
+
+    private static final byte[] MAGIC = {'F', 'L', 'H', 'J'};
+    private static final int FORMAT_VERSION = 1;
+    private static final int RECORD_TYPE_MASK = 0x03;
+    private static final int RECORD_TYPE_FLIP = 0x01;
+    private static final int RECORD_TYPE_REMOVAL = 0x02;
+    private static final int FLAG_HEADS = 0x04;
+    private static final int FLAG_WON = 0x08;
+    private static final int VARINT_PAYLOAD_BITS = 7;
+    private static final int VARINT_PAYLOAD_MASK = 0x7F;
+    private static final int VARINT_CONTINUE_BIT = 0x80;
+    private static final int MAX_VARINT_SHIFT = Long.SIZE - 1;
+
+    private static final String LEGACY_REMOVAL_PREFIX = "-";
+
+    private final File journalFile;
+    private int liveRecords;
+    private int deadRecords;
+    private long lastDateMillis;
+    private boolean wasLastRecordCutOff;
+    private boolean isRestored;
+
+    protected FlipHistoryJournal(File dataDir) {
+        journalFile = new File(dataDir, JOURNAL_FILE_NAME);
+    }
+
+    // replays the journal, returning the live entries in the order they were recorded
+    @Override
+    public synchronized List<FlipHistoryEntry> restore() {
+        List<FlipHistoryEntry> entries = new ArrayList<>();
+        Set<Long> removedChildIds = new HashSet<>();
+        int numRecords;
+        boolean needsRewrite;
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(journalFile))) {
+            if(hasHeader(in)) {
+                numRecords = readRecords(in, entries, removedChildIds);
+                needsRewrite = wasLastRecordCutOff;
+            } else {
+                numRecords = readLegacyRecords(entries, removedChildIds);
+                needsRewrite = true;
+            }
+        } catch (FileNotFoundException e) {
+            // nothing has been journaled yet
+            isRestored = true;
+            return entries;
+        } catch (IOException e) {
+            throw new IllegalStateException("FlipHistoryJournal could not read the journal", e);
+        }
+
+        // child IDs are never reused, so a removal record applies to every entry of that child
+        if(!removedChildIds.isEmpty()) {
+            List<FlipHistoryEntry> liveEntries = new ArrayList<>(entries.size());
+            for(FlipHistoryEntry entry : entries) {
+                if(!removedChildIds.contains(entry.getChildId())) {
+                    liveEntries.add(entry);
+                }
+            }
+            entries = liveEntries;
+        }
+
+        if(needsRewrite) {
+            // either the old format, or a record that was cut off (e.g. the app was killed
+            // mid-write) which must be dropped before anything else is appended
+            replaceAll(entries);
+        } else {
+            liveRecords = entries.size();
+            deadRecords = numRecords - liveRecords;
+        }
+
+        isRestored = true;
+        return entries;
+    }
+
+    @Override
+    public synchronized void append(FlipHistoryEntry entry) {
+        restoreIfNeeded();
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        writeFlipRecord(record, entry);
+        appendRecord(record);
+        liveRecords++;
+    }
+
+    @Override
+    public synchronized void removeChild(long childId, int numEntriesRemoved) {
+        restoreIfNeeded();
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write(RECORD_TYPE_REMOVAL);
+        writeVarLong(record, childId);
+        appendRecord(record);
+        liveRecords -= numEntriesRemoved;
+        deadRecords += numEntriesRemoved + 1;
+    }
+
+    // rewrites the journal when it holds more dead records than live ones
+    @Override
+    public synchronized void compactIfNeeded() {
+        if(deadRecords >= MIN_DEAD_RECORDS_TO_COMPACT && deadRecords > liveRecords) {
+            replaceAll(restore());
+        }
+    }
+
+    // replaces the journal with the given entries; the rename makes the swap atomic
+    @Override
+    public synchronized void replaceAll(List<FlipHistoryEntry> liveEntries) {
+        File tempFile = new File(journalFile.getPath() + TEMP_FILE_SUFFIX);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write(MAGIC, 0, MAGIC.length);
+        buffer.write(FORMAT_VERSION);
+
+        lastDateMillis = 0;
+        for(FlipHistoryEntry entry : liveEntries) {
+            writeFlipRecord(buffer, entry);
+        }
+
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            buffer.writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("FlipHistoryJournal could not compact the journal", e);
+        }
+
+        if(!tempFile.renameTo(journalFile)) {
+            throw new IllegalStateException("FlipHistoryJournal could not replace the journal");
+        }
+
+        liveRecords = liveEntries.size();
+        deadRecords = 0;
+        isRestored = true;
+    }
+
+    // dates are written relative to the previous flip, so the journal must be read before appending
+    private void restoreIfNeeded() {
+        if(!isRestored) {
+            restore();
+        }
+    }
+
+    private boolean hasHeader(InputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.mark(magic.length);
+
+        if(in.read(magic) == magic.length && Arrays.equals(magic, MAGIC)) {
+            int version = in.read();
+            if(version > FORMAT_VERSION) {
+                throw new IllegalStateException("FlipHistoryJournal does not support journal version " + version);
+            }
+            return true;
+        }
+
+        in.reset();
+        return false;
+    }
+
+    // returns the number of complete records read
+    private int readRecords(InputStream in, List<FlipHistoryEntry> entries, Set<Long> removedChildIds) {
+        int numRecords = 0;
+        lastDateMillis = 0;
+        wasLastRecordCutOff = false;
+
+        try {
+            int recordHeader;
+            while((recordHeader = in.read()) != -1) {
+                long childId = readVarLong(in);
+
+                switch(recordHeader & RECORD_TYPE_MASK) {
+                    case RECORD_TYPE_FLIP:
+                        lastDateMillis += zigzagDecode(readVarLong(in));
+                        FlipManager.CoinSide result = (recordHeader & FLAG_HEADS) != 0
+                                ? FlipManager.CoinSide.HEADS : FlipManager.CoinSide.TAILS;
+                        boolean won = (recordHeader & FLAG_WON) != 0;
+                        entries.add(new FlipHistoryEntry(childId, result, won, lastDateMillis));
+                        break;
+                    case RECORD_TYPE_REMOVAL:
+                        removedChildIds.add(childId);
+                        break;
+                    default:
+                        throw new IOException("FlipHistoryJournal found an unknown record type");
+                }
+
+                numRecords++;
+            }
+        } catch (IOException e) {
+            wasLastRecordCutOff = true;
+        }
+
+        return numRecords;
+    }
+
+    // reads a journal written in the older format, with one JSON entry per line
+    private int readLegacyRecords(List<FlipHistoryEntry> entries, Set<Long> removedChildIds) throws IOException {
+        int numRecords = 0;
+        Gson gson = PrefsManager.getGson();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                numRecords++;
+
+                try {
+                    if(line.startsWith(LEGACY_REMOVAL_PREFIX)) {
+                        removedChildIds.add(Long.parseLong(line.substring(LEGACY_REMOVAL_PREFIX.length())));
+                    } else {
+                        FlipHistoryEntry entry = gson.fromJson(line, FlipHistoryEntry.class);
+                        if(entry != null) {
+                            entries.add(entry);
+                        }
+                    }
+                } catch (JsonParseException | NumberFormatException e) {
+                    // a partially written line: skip it, it is dropped when the journal is converted
+                }
+            }
+        }
+
+        return numRecords;
+    }
+
+    private void writeFlipRecord(ByteArrayOutputStream out, FlipHistoryEntry entry) {
+        int recordHeader = RECORD_TYPE_FLIP;
+        if(entry.getResult() == FlipManager.CoinSide.HEADS) {
+            recordHeader |= FLAG_HEADS;
+        }
+        if(entry.wasWon()) {
+            recordHeader |= FLAG_WON;
+        }
+
+        out.write(recordHeader);
+        writeVarLong(out, entry.getChildId());
+        writeVarLong(out, zigzagEncode(entry.getDateMillis() - lastDateMillis));
+        lastDateMillis = entry.getDateMillis();
+    }
+
+    // the record is written with a single call so that it is (almost always) written entirely or not at all
+    private void appendRecord(ByteArrayOutputStream record) {
+        boolean isNewFile = !journalFile.exists();
+
+        try (OutputStream out = new FileOutputStream(journalFile, true)) {
+            if(isNewFile) {
+                out.write(MAGIC);
+                out.write(FORMAT_VERSION);
+            }
+            record.writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("FlipHistoryJournal could not append to the journal", e);
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while((value & ~VARINT_PAYLOAD_MASK) != 0) {
+            out.write((int) ((value & VARINT_PAYLOAD_MASK) | VARINT_CONTINUE_BIT));
+            value >>>= VARINT_PAYLOAD_BITS;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+
+        while(shift <= MAX_VARINT_SHIFT) {
+            int nextByte = in.read();
+            if(nextByte == -1) {
+                throw new EOFException("FlipHistoryJournal found a record that was cut off");
+            }
+
+            value |= (long) (nextByte & VARINT_PAYLOAD_MASK) << shift;
+            if((nextByte & VARINT_CONTINUE_BIT) == 0) {
+                return value;
+            }
+            shift += VARINT_PAYLOAD_BITS;
+        }
+
+        throw new IOException("FlipHistoryJournal found a malformed varint");
+    }
+
+    // maps small negative and positive numbers to small varints (dates may go backwards if the clock changes)
+    private static long zigzagEncode(long value) {
+        return (value << 1) ^ (value >> MAX_VARINT_SHIFT);
+    }
+
+    private static long zigzagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
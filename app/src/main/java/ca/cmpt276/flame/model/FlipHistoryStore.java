@@ -0,0 +1,21 @@
+package ca.cmpt276.flame.model;
+
+import java.util.List;
+
+/**
+ * FlipHistoryStore persists the coin flip history for a StorageBackend. Entries are
+ * only ever appended, or removed all at once when a child is deleted.
+ */
+public interface FlipHistoryStore {
+    // returns every stored entry in the order they were recorded
+    List<FlipHistoryEntry> restore();
+
+    void append(FlipHistoryEntry entry);
+
+    void removeChild(long childId, int numEntriesRemoved);
+
+    // gives the store a chance to reclaim space used by removed entries
+    void compactIfNeeded();
+
+    void replaceAll(List<FlipHistoryEntry> entries);
+}
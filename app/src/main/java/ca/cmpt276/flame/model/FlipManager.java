@@ -2,14 +2,27 @@ package ca.cmpt276.flame.model;
 
 import androidx.annotation.NonNull;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * FlipManager is a singleton class that manages coin flips and
- * a list of FlipHistoryEntry objects. It is persisted between app
- * launches using SharedPreferences.
+ * a list of FlipHistoryEntry objects. The turn queue is persisted between
+ * app launches using SharedPreferences, while the history is persisted
+ * in a FlipHistoryStore so that each flip only appends a single entry.
+ *
+ * Removing a child's flips leaves tombstones (null slots) in the history, so the
+ * positions in the FlipHistoryIndex stay valid and only that child's entries are
+ * touched. The tombstones are compacted away once they outnumber the live entries;
+ * that bumps the history generation, so open FlipHistoryCursors find their place again.
+ * Each flip is sent as a ModelEvent to the listeners added with addListener().
  */
 public class FlipManager implements Iterable<FlipHistoryEntry> {
     /** CoinSide represents the two possible sides of a coin */
@@ -19,15 +32,26 @@ public class FlipManager implements Iterable<FlipHistoryEntry> {
     }
 
     private static final String SHARED_PREFS_KEY = "SHARED_PREFS_FLIP_MANAGER";
+    private static final String STATISTICS_SHARED_PREFS_KEY = "SHARED_PREFS_FLIP_STATISTICS";
+    private static final int MIN_TOMBSTONES_TO_COMPACT = 64;
     private static FlipManager flipManager;
-    private final ChildrenQueue childrenQueue = new ChildrenQueue();
+    private final ChildrenQueue childrenQueue;
     private final List<FlipHistoryEntry> history = new ArrayList<>();
+    private final FlipHistoryIndex historyIndex = new FlipHistoryIndex();
+    private final ModelEventDispatcher eventDispatcher = new ModelEventDispatcher();
+    private int numTombstones;
+    private int historyGeneration;
+    private FlipStatistics statistics;
+
+    // older versions of the app saved the whole history inside the FlipManager JSON
+    private List<FlipHistoryEntry> legacyHistory;
 
     // Singleton
 
     public static FlipManager getInstance() {
         if(flipManager == null) {
             flipManager = (FlipManager) PrefsManager.restoreObj(SHARED_PREFS_KEY, FlipManager.class);
+            flipManager.restoreHistory();
         }
 
         return flipManager;
@@ -35,8 +59,38 @@ public class FlipManager implements Iterable<FlipHistoryEntry> {
 
     // Normal class
 
-    private FlipManager() {
+    private FlipManager(ChildrenQueue childrenQueue) {
         // singleton: prevent other classes from creating new ones
+        this.childrenQueue = childrenQueue;
+    }
+
+    private void restoreHistory() {
+        history.addAll(PrefsManager.restoreFlipHistory());
+
+        if(legacyHistory != null) {
+            // one-time migration: move the old history into the store, then drop it from the JSON
+            history.clear();
+            history.addAll(legacyHistory);
+            PrefsManager.replaceFlipHistory(history);
+            legacyHistory = null;
+            persistToSharedPrefs();
+        }
+
+        historyIndex.rebuild(history);
+        restoreStatistics();
+    }
+
+    // the statistics are saved separately; they are only replayed from the history if that copy is missing or stale
+    private void restoreStatistics() {
+        statistics = (FlipStatistics) PrefsManager.restoreObj(STATISTICS_SHARED_PREFS_KEY, FlipStatistics.class);
+
+        if(statistics.getNumFlips() != history.size()) {
+            statistics.clear();
+            for(FlipHistoryEntry entry : history) {
+                statistics.addFlip(entry);
+            }
+            persistStatistics();
+        }
     }
 
     public void overrideTurnChild(Child child) {
@@ -57,50 +111,224 @@ public class FlipManager implements Iterable<FlipHistoryEntry> {
     public CoinSide doFlip(CoinSide selection) {
         CoinSide result = getRandomCoinSide();
         Child child = childrenQueue.takeTurn();
+        FlipHistoryEntry entry;
 
         if(child == null) {
-            history.add(new FlipHistoryEntry(Child.NONE, result, false));
+            entry = new FlipHistoryEntry(Child.NONE, result, false);
         } else {
-            history.add(new FlipHistoryEntry(child.getId(), result, result == selection));
+            entry = new FlipHistoryEntry(child.getId(), result, result == selection);
         }
 
+        historyIndex.add(entry, history.size());
+        history.add(entry);
+        statistics.addFlip(entry);
+        PrefsManager.appendFlipHistory(entry);
         persistToSharedPrefs();
+        persistStatistics();
+        eventDispatcher.dispatch(ModelEvent.forFlip(entry));
         return result;
     }
 
+    public void addListener(ModelEventListener listener) {
+        eventDispatcher.addListener(listener);
+    }
+
+    public void removeListener(ModelEventListener listener) {
+        eventDispatcher.removeListener(listener);
+    }
+
     private CoinSide getRandomCoinSide() {
         CoinSide[] sides = CoinSide.values();
         int randomChoice = (int) Math.floor(Math.random() * sides.length);
         return sides[randomChoice];
     }
 
+    // newest-first pages of the whole history
+    public FlipHistoryCursor getHistoryCursor(int pageSize) {
+        return new FlipHistoryCursor(this, pageSize);
+    }
+
+    // newest-first pages of the flips made by one child
+    public FlipHistoryCursor getHistoryCursor(long childId, int pageSize) {
+        return new FlipHistoryCursor(this, childId, pageSize);
+    }
+
+    // the live history, tombstones included; only for FlipHistoryCursor
+    protected List<FlipHistoryEntry> getHistory() {
+        return history;
+    }
+
+    // the live positions of the child's entries (empty if the child never flipped); only valid until compaction
+    protected IntList getChildPositions(long childId) {
+        IntList childPositions = historyIndex.getPositions(childId);
+        if(childPositions == null) {
+            childPositions = new IntList();
+        }
+
+        return childPositions;
+    }
+
+    // changes whenever the history is compacted, i.e. when positions read earlier stop being valid
+    protected int getHistoryGeneration() {
+        return historyGeneration;
+    }
+
+    public FlipStatistics getStatistics() {
+        return statistics;
+    }
+
     public CoinSide getLastCoinValue() {
-        if(history.size() == 0) {
-            return CoinSide.TAILS;
+        for(int i = history.size() - 1; i >= 0; i--) {
+            FlipHistoryEntry entry = history.get(i);
+            if(entry != null) {
+                return entry.getResult();
+            }
         }
 
-        return history.get(history.size() - 1).getResult();
+        return CoinSide.TAILS;
+    }
+
+    // should only be called by the ChildrenManager when a child is deleted
+    protected void removeChildFromQueue(long childId) {
+        if(childrenQueue.removeChild(childId)) {
+            persistToSharedPrefs();
+        }
     }
 
     // should only be called by the ChildrenManager when a child is deleted
     protected void removeChildFromHistory(long childId) {
-        for(int i = 0; i < history.size(); i++) {
-            long historyChildId = history.get(i).getChildId();
-            if(historyChildId == childId) {
-                history.remove(i);
-                i--; // array size has now changed
+        IntList childPositions = historyIndex.removeChild(childId);
+        if(childPositions == null) {
+            return;
+        }
+
+        // only the child's own entries are touched: each becomes a tombstone
+        List<FlipHistoryEntry> childEntries = new ArrayList<>(childPositions.size());
+        for(int i = 0; i < childPositions.size(); i++) {
+            childEntries.add(history.set(childPositions.get(i), null));
+        }
+        numTombstones += childPositions.size();
+        statistics.removeChildFlips(childId, childEntries);
+
+        if(numTombstones >= MIN_TOMBSTONES_TO_COMPACT && numTombstones > history.size() - numTombstones) {
+            compactHistory();
+        }
+
+        PrefsManager.removeChildFromFlipHistory(childId, childPositions.size());
+        persistStatistics();
+    }
+
+    // drops every tombstone in a single pass; the positions change, so the index is rebuilt
+    private void compactHistory() {
+        int writePos = 0;
+        for(int readPos = 0; readPos < history.size(); readPos++) {
+            FlipHistoryEntry entry = history.get(readPos);
+            if(entry != null) {
+                history.set(writePos++, entry);
             }
         }
-        persistToSharedPrefs();
+        history.subList(writePos, history.size()).clear();
+
+        numTombstones = 0;
+        historyIndex.rebuild(history);
+        historyGeneration++;
     }
 
     private void persistToSharedPrefs() {
         PrefsManager.persistObj(SHARED_PREFS_KEY, this);
     }
 
+    private void persistStatistics() {
+        PrefsManager.persistObj(STATISTICS_SHARED_PREFS_KEY, statistics);
+    }
+
     @NonNull
     @Override
     public Iterator<FlipHistoryEntry> iterator() {
-        return history.iterator();
+        return new HistoryIterator();
+    }
+
+    /**
+     * HistoryIterator iterates the history from oldest to newest, skipping tombstones
+     */
+    private class HistoryIterator implements Iterator<FlipHistoryEntry> {
+        private int nextPos = findLive(0);
+
+        @Override
+        public boolean hasNext() {
+            return nextPos < history.size();
+        }
+
+        @Override
+        public FlipHistoryEntry next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException("FlipManager has no more history entries");
+            }
+
+            FlipHistoryEntry entry = history.get(nextPos);
+            nextPos = findLive(nextPos + 1);
+            return entry;
+        }
+
+        private int findLive(int fromPos) {
+            int pos = fromPos;
+            while(pos < history.size() && history.get(pos) == null) {
+                pos++;
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * GsonAdapter reads and writes the FlipManager without using reflection.
+     * Only the turn queue is written, since the history has its own FlipHistoryStore.
+     */
+    protected static class GsonAdapter extends TypeAdapter<FlipManager> {
+        private static final String JSON_CHILDREN_QUEUE = "childrenQueue";
+        private static final String JSON_LEGACY_HISTORY = "history";
+        private final ChildrenQueue.GsonAdapter queueAdapter = new ChildrenQueue.GsonAdapter();
+        private final FlipHistoryEntry.GsonAdapter entryAdapter = new FlipHistoryEntry.GsonAdapter();
+
+        @Override
+        public void write(JsonWriter out, FlipManager manager) throws IOException {
+            out.beginObject();
+            out.name(JSON_CHILDREN_QUEUE);
+            queueAdapter.write(out, manager.childrenQueue);
+            out.endObject();
+        }
+
+        @Override
+        public FlipManager read(JsonReader in) throws IOException {
+            ChildrenQueue childrenQueue = null;
+            List<FlipHistoryEntry> legacyHistory = null;
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case JSON_CHILDREN_QUEUE:
+                        childrenQueue = queueAdapter.read(in);
+                        break;
+                    case JSON_LEGACY_HISTORY:
+                        legacyHistory = new ArrayList<>();
+                        in.beginArray();
+                        while(in.hasNext()) {
+                            legacyHistory.add(entryAdapter.read(in));
+                        }
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            if(childrenQueue == null) {
+                childrenQueue = new ChildrenQueue();
+            }
+
+            FlipManager manager = new FlipManager(childrenQueue);
+            manager.legacyHistory = legacyHistory;
+            return manager;
+        }
     }
 }
@@ -0,0 +1,323 @@
+package ca.cmpt276.flame.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FlipStatistics holds running totals about the coin flips: per child (win rate,
+ * current and longest winning streak, heads/tails) and overall (win rate, heads/tails,
+ * flips per day). It is updated by the FlipManager as each flip is recorded, so reading
+ * a statistic never scans the history. It is persisted on its own, and is only rebuilt
+ * from the history if the saved copy is missing or does not match the history.
+ */
+public class FlipStatistics {
+    private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+    private final Map<Long, ChildStatistics> childStats = new HashMap<>();
+    private final TreeMap<Long, Integer> flipsPerDay = new TreeMap<>();
+    private int numFlips;
+    private int numHeads;
+    private int numFlipsByChildren;
+    private int numWins;
+
+    protected FlipStatistics() {
+        // created by the FlipManager (or restored from storage)
+    }
+
+    protected void addFlip(FlipHistoryEntry entry) {
+        numFlips++;
+        if(entry.getResult() == FlipManager.CoinSide.HEADS) {
+            numHeads++;
+        }
+
+        long day = toLocalDay(entry.getDateMillis());
+        Integer flipsOnDay = flipsPerDay.get(day);
+        flipsPerDay.put(day, flipsOnDay == null ? 1 : flipsOnDay + 1);
+
+        if(entry.getChildId() == Child.NONE) {
+            return;
+        }
+
+        numFlipsByChildren++;
+        if(entry.wasWon()) {
+            numWins++;
+        }
+
+        ChildStatistics stats = childStats.get(entry.getChildId());
+        if(stats == null) {
+            stats = new ChildStatistics();
+            childStats.put(entry.getChildId(), stats);
+        }
+        stats.addFlip(entry);
+    }
+
+    // takes a removed child's flips back out of the overall totals
+    protected void removeChildFlips(long childId, Iterable<FlipHistoryEntry> childEntries) {
+        for(FlipHistoryEntry entry : childEntries) {
+            numFlips--;
+            numFlipsByChildren--;
+            if(entry.getResult() == FlipManager.CoinSide.HEADS) {
+                numHeads--;
+            }
+            if(entry.wasWon()) {
+                numWins--;
+            }
+
+            long day = toLocalDay(entry.getDateMillis());
+            Integer flipsOnDay = flipsPerDay.get(day);
+            if(flipsOnDay == null || flipsOnDay <= 1) {
+                flipsPerDay.remove(day);
+            } else {
+                flipsPerDay.put(day, flipsOnDay - 1);
+            }
+        }
+
+        childStats.remove(childId);
+    }
+
+    protected void clear() {
+        childStats.clear();
+        flipsPerDay.clear();
+        numFlips = 0;
+        numHeads = 0;
+        numFlipsByChildren = 0;
+        numWins = 0;
+    }
+
+    // Overall statistics
+
+    public int getNumFlips() {
+        return numFlips;
+    }
+
+    public int getNumHeads() {
+        return numHeads;
+    }
+
+    public int getNumTails() {
+        return numFlips - numHeads;
+    }
+
+    // the fraction of flips (made by a child) that were won, between 0 and 1
+    public float getWinRate() {
+        return getRate(numWins, numFlipsByChildren);
+    }
+
+    public int getFlipsOnDay(long dateMillis) {
+        Integer flipsOnDay = flipsPerDay.get(toLocalDay(dateMillis));
+        return flipsOnDay == null ? 0 : flipsOnDay;
+    }
+
+    // averaged over every day from the first flip until the given date (usually now)
+    public float getAverageFlipsPerDay(long untilMillis) {
+        if(flipsPerDay.isEmpty()) {
+            return 0;
+        }
+
+        long numDays = Math.max(1, toLocalDay(untilMillis) - flipsPerDay.firstKey() + 1);
+        return (float) numFlips / numDays;
+    }
+
+    // Per child statistics
+
+    public int getNumFlips(long childId) {
+        ChildStatistics stats = childStats.get(childId);
+        return stats == null ? 0 : stats.numFlips;
+    }
+
+    public int getNumWins(long childId) {
+        ChildStatistics stats = childStats.get(childId);
+        return stats == null ? 0 : stats.numWins;
+    }
+
+    public float getWinRate(long childId) {
+        return getRate(getNumWins(childId), getNumFlips(childId));
+    }
+
+    public int getNumHeads(long childId) {
+        ChildStatistics stats = childStats.get(childId);
+        return stats == null ? 0 : stats.numHeads;
+    }
+
+    public int getNumTails(long childId) {
+        return getNumFlips(childId) - getNumHeads(childId);
+    }
+
+    // the number of flips in a row the child has won, up to their most recent flip
+    public int getCurrentStreak(long childId) {
+        ChildStatistics stats = childStats.get(childId);
+        return stats == null ? 0 : stats.currentStreak;
+    }
+
+    public int getLongestStreak(long childId) {
+        ChildStatistics stats = childStats.get(childId);
+        return stats == null ? 0 : stats.longestStreak;
+    }
+
+    private static float getRate(int count, int total) {
+        if(total == 0) {
+            return 0;
+        }
+
+        return (float) count / total;
+    }
+
+    // the number of days since the epoch in the device's time zone, so days start at local midnight
+    private static long toLocalDay(long dateMillis) {
+        return (dateMillis + TimeZone.getDefault().getOffset(dateMillis)) / MILLIS_PER_DAY;
+    }
+
+    /**
+     * ChildStatistics holds the running totals of a single child
+     */
+    private static class ChildStatistics {
+        private int numFlips;
+        private int numWins;
+        private int numHeads;
+        private int currentStreak;
+        private int longestStreak;
+
+        private void addFlip(FlipHistoryEntry entry) {
+            numFlips++;
+            if(entry.getResult() == FlipManager.CoinSide.HEADS) {
+                numHeads++;
+            }
+
+            if(entry.wasWon()) {
+                numWins++;
+                currentStreak++;
+                longestStreak = Math.max(longestStreak, currentStreak);
+            } else {
+                currentStreak = 0;
+            }
+        }
+    }
+
+    /**
+     * GsonAdapter reads and writes the FlipStatistics without using reflection
+     */
+    protected static class GsonAdapter extends TypeAdapter<FlipStatistics> {
+        private static final String JSON_NUM_FLIPS = "numFlips";
+        private static final String JSON_NUM_HEADS = "numHeads";
+        private static final String JSON_NUM_FLIPS_BY_CHILDREN = "numFlipsByChildren";
+        private static final String JSON_NUM_WINS = "numWins";
+        private static final String JSON_FLIPS_PER_DAY = "flipsPerDay";
+        private static final String JSON_CHILDREN = "children";
+        private static final String JSON_CHILD_ID = "id";
+        private static final String JSON_CURRENT_STREAK = "currentStreak";
+        private static final String JSON_LONGEST_STREAK = "longestStreak";
+
+        @Override
+        public void write(JsonWriter out, FlipStatistics statistics) throws IOException {
+            out.beginObject();
+            out.name(JSON_NUM_FLIPS).value(statistics.numFlips);
+            out.name(JSON_NUM_HEADS).value(statistics.numHeads);
+            out.name(JSON_NUM_FLIPS_BY_CHILDREN).value(statistics.numFlipsByChildren);
+            out.name(JSON_NUM_WINS).value(statistics.numWins);
+
+            out.name(JSON_FLIPS_PER_DAY).beginObject();
+            for(Map.Entry<Long, Integer> flipsOnDay : statistics.flipsPerDay.entrySet()) {
+                out.name(String.valueOf(flipsOnDay.getKey())).value(flipsOnDay.getValue());
+            }
+            out.endObject();
+
+            out.name(JSON_CHILDREN).beginArray();
+            for(Map.Entry<Long, ChildStatistics> childEntry : statistics.childStats.entrySet()) {
+                ChildStatistics stats = childEntry.getValue();
+                out.beginObject();
+                out.name(JSON_CHILD_ID).value(childEntry.getKey());
+                out.name(JSON_NUM_FLIPS).value(stats.numFlips);
+                out.name(JSON_NUM_WINS).value(stats.numWins);
+                out.name(JSON_NUM_HEADS).value(stats.numHeads);
+                out.name(JSON_CURRENT_STREAK).value(stats.currentStreak);
+                out.name(JSON_LONGEST_STREAK).value(stats.longestStreak);
+                out.endObject();
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public FlipStatistics read(JsonReader in) throws IOException {
+            FlipStatistics statistics = new FlipStatistics();
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case JSON_NUM_FLIPS:
+                        statistics.numFlips = in.nextInt();
+                        break;
+                    case JSON_NUM_HEADS:
+                        statistics.numHeads = in.nextInt();
+                        break;
+                    case JSON_NUM_FLIPS_BY_CHILDREN:
+                        statistics.numFlipsByChildren = in.nextInt();
+                        break;
+                    case JSON_NUM_WINS:
+                        statistics.numWins = in.nextInt();
+                        break;
+                    case JSON_FLIPS_PER_DAY:
+                        in.beginObject();
+                        while(in.hasNext()) {
+                            statistics.flipsPerDay.put(Long.parseLong(in.nextName()), in.nextInt());
+                        }
+                        in.endObject();
+                        break;
+                    case JSON_CHILDREN:
+                        in.beginArray();
+                        while(in.hasNext()) {
+                            readChild(in, statistics);
+                        }
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return statistics;
+        }
+
+        private void readChild(JsonReader in, FlipStatistics statistics) throws IOException {
+            long childId = Child.NONE;
+            ChildStatistics stats = new ChildStatistics();
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case JSON_CHILD_ID:
+                        childId = in.nextLong();
+                        break;
+                    case JSON_NUM_FLIPS:
+                        stats.numFlips = in.nextInt();
+                        break;
+                    case JSON_NUM_WINS:
+                        stats.numWins = in.nextInt();
+                        break;
+                    case JSON_NUM_HEADS:
+                        stats.numHeads = in.nextInt();
+                        break;
+                    case JSON_CURRENT_STREAK:
+                        stats.currentStreak = in.nextInt();
+                        break;
+                    case JSON_LONGEST_STREAK:
+                        stats.longestStreak = in.nextInt();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            statistics.childStats.put(childId, stats);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ca.cmpt276.flame.model;
+
+import java.util.Arrays;
+
+/**
+ * IntList is a growable list of primitive ints. It is used for indexes into the
+ * flip history, where boxing every position into an Integer would cost far more
+ * memory than the positions themselves.
+ */
+public class IntList {
+    private static final int INITIAL_CAPACITY = 8;
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("IntList expects an index less than " + size + ", got " + index);
+        }
+
+        return values[index];
+    }
+
+    public void add(int value) {
+        if(size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        values[size++] = value;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,183 @@
+package ca.cmpt276.flame.model;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * LongOrderedSet is a set of primitive longs that remembers the order they were added
+ * in, like a LinkedHashSet<Long> but without boxing. Adding, removing, checking for and
+ * getting the first value are all O(1) (amortized for adding). Values are kept in nodes
+ * that form a doubly linked list, and found through an open addressing hash table
+ * (linear probing) of node indexes, so removing a value never leaves a gap to skip over.
+ */
+public class LongOrderedSet {
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int NO_NODE = -1;
+    private static final int EMPTY_SLOT = 0;
+    // Fibonacci hashing spreads IDs that are close together across the table
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final int INT_BITS = 32;
+
+    private long[] values = new long[INITIAL_CAPACITY];
+    private int[] prevNodes = new int[INITIAL_CAPACITY];
+    private int[] nextNodes = new int[INITIAL_CAPACITY];
+    // each slot holds a node index + 1, so that EMPTY_SLOT can mean "no node"
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int firstNode = NO_NODE;
+    private int lastNode = NO_NODE;
+    // removed nodes are reused before the arrays grow; they are chained through nextNodes
+    private int firstFreeNode = NO_NODE;
+    private int numNodesUsed;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long value) {
+        return table[findSlot(value)] != EMPTY_SLOT;
+    }
+
+    public long first() {
+        if(firstNode == NO_NODE) {
+            throw new NoSuchElementException("LongOrderedSet expects to be non-empty");
+        }
+
+        return values[firstNode];
+    }
+
+    // adds the value to the end; returns false (and leaves the order alone) if it is already in the set
+    public boolean add(long value) {
+        int slot = findSlot(value);
+        if(table[slot] != EMPTY_SLOT) {
+            return false;
+        }
+
+        int node = newNode(value);
+        table[slot] = node + 1;
+        size++;
+
+        if(size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    public boolean remove(long value) {
+        int slot = findSlot(value);
+        if(table[slot] == EMPTY_SLOT) {
+            return false;
+        }
+
+        freeNode(table[slot] - 1);
+        closeGap(slot);
+        size--;
+        return true;
+    }
+
+    // in order, from first to last
+    public long[] toArray() {
+        long[] array = new long[size];
+        int i = 0;
+        for(int node = firstNode; node != NO_NODE; node = nextNodes[node]) {
+            array[i++] = values[node];
+        }
+        return array;
+    }
+
+    // the slot holding the value, or the empty slot where it would go
+    private int findSlot(long value) {
+        int mask = table.length - 1;
+        int slot = hash(value) & mask;
+
+        while(table[slot] != EMPTY_SLOT && values[table[slot] - 1] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long value) {
+        long hash = value * HASH_MULTIPLIER;
+        return (int) (hash ^ (hash >>> INT_BITS));
+    }
+
+    // with linear probing, later values in the same run are shifted back so that lookups never stop early
+    private void closeGap(int gapSlot) {
+        int mask = table.length - 1;
+        int slot = (gapSlot + 1) & mask;
+
+        while(table[slot] != EMPTY_SLOT) {
+            int homeSlot = hash(values[table[slot] - 1]) & mask;
+            if(((slot - homeSlot) & mask) >= ((slot - gapSlot) & mask)) {
+                table[gapSlot] = table[slot];
+                gapSlot = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        table[gapSlot] = EMPTY_SLOT;
+    }
+
+    private void rehash(int tableSize) {
+        table = new int[tableSize];
+        int mask = tableSize - 1;
+
+        for(int node = firstNode; node != NO_NODE; node = nextNodes[node]) {
+            int slot = hash(values[node]) & mask;
+            while(table[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = node + 1;
+        }
+    }
+
+    // links a node holding the value onto the end of the list
+    private int newNode(long value) {
+        int node;
+        if(firstFreeNode != NO_NODE) {
+            node = firstFreeNode;
+            firstFreeNode = nextNodes[node];
+        } else {
+            if(numNodesUsed == values.length) {
+                values = Arrays.copyOf(values, numNodesUsed * 2);
+                prevNodes = Arrays.copyOf(prevNodes, numNodesUsed * 2);
+                nextNodes = Arrays.copyOf(nextNodes, numNodesUsed * 2);
+            }
+            node = numNodesUsed++;
+        }
+
+        values[node] = value;
+        prevNodes[node] = lastNode;
+        nextNodes[node] = NO_NODE;
+        if(lastNode == NO_NODE) {
+            firstNode = node;
+        } else {
+            nextNodes[lastNode] = node;
+        }
+        lastNode = node;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        int prevNode = prevNodes[node];
+        int nextNode = nextNodes[node];
+
+        if(prevNode == NO_NODE) {
+            firstNode = nextNode;
+        } else {
+            nextNodes[prevNode] = nextNode;
+        }
+        if(nextNode == NO_NODE) {
+            lastNode = prevNode;
+        } else {
+            prevNodes[nextNode] = prevNode;
+        }
+
+        nextNodes[node] = firstFreeNode;
+        firstFreeNode = node;
+    }
+}
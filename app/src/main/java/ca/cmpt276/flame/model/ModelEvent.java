@@ -0,0 +1,85 @@
+package ca.cmpt276.flame.model;
+
+/**
+ * ModelEvent describes a single change to the model, so that screens can update just
+ * what changed rather than rebuilding everything. Events are sent to the
+ * ModelEventListeners of the manager that made the change (see ChildrenManager.addListener(),
+ * TaskManager.addListener(), FlipManager.addListener() and TimeoutManager.addListener()).
+ * Only the IDs that make sense for the event's type are set; the others are NO_ID.
+ */
+public class ModelEvent {
+    public static final long NO_ID = 0L;
+    private final Type type;
+    private final long childId;
+    private final long taskId;
+    private final long timeoutId;
+    private final FlipHistoryEntry flipEntry;
+
+    /**
+     * Type is what changed, along with which IDs the event carries
+     */
+    public enum Type {
+        // childId
+        CHILD_ADDED,
+        CHILD_RENAMED,
+        CHILD_IMAGE_CHANGED,
+        // also covers the child being taken out of every task's queue
+        CHILD_REMOVED,
+        // taskId
+        TASK_ADDED,
+        TASK_EDITED,
+        TASK_REMOVED,
+        // taskId, and the childId of the child who took the turn
+        TASK_TURN_TAKEN,
+        // the flip entry, which includes the child who flipped
+        FLIP_RECORDED,
+        // timeoutId; changed means started, paused, reset, finished or its speed changed
+        TIMEOUT_CHANGED,
+        TIMEOUT_REMOVED
+    }
+
+    private ModelEvent(Type type, long childId, long taskId, long timeoutId, FlipHistoryEntry flipEntry) {
+        this.type = type;
+        this.childId = childId;
+        this.taskId = taskId;
+        this.timeoutId = timeoutId;
+        this.flipEntry = flipEntry;
+    }
+
+    protected static ModelEvent forChild(Type type, long childId) {
+        return new ModelEvent(type, childId, NO_ID, NO_ID, null);
+    }
+
+    protected static ModelEvent forTask(Type type, long taskId, Child child) {
+        return new ModelEvent(type, child == null ? NO_ID : child.getId(), taskId, NO_ID, null);
+    }
+
+    protected static ModelEvent forFlip(FlipHistoryEntry flipEntry) {
+        return new ModelEvent(Type.FLIP_RECORDED, flipEntry.getChildId(), NO_ID, NO_ID, flipEntry);
+    }
+
+    protected static ModelEvent forTimeout(Type type, long timeoutId) {
+        return new ModelEvent(type, NO_ID, NO_ID, timeoutId, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getChildId() {
+        return childId;
+    }
+
+    public long getTaskId() {
+        return taskId;
+    }
+
+    public long getTimeoutId() {
+        return timeoutId;
+    }
+
+    // may return null unless the type is FLIP_RECORDED
+    public FlipHistoryEntry getFlipEntry() {
+        return flipEntry;
+    }
+}
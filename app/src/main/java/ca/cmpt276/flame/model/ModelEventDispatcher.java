@@ -0,0 +1,38 @@
+package ca.cmpt276.flame.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ModelEventDispatcher holds the listeners of one manager and sends them its events.
+ * Listeners may add or remove listeners (including themselves) while handling an event.
+ * Like the managers, it is only used from the main thread.
+ */
+public class ModelEventDispatcher {
+    private final List<ModelEventListener> listeners = new ArrayList<>();
+
+    protected void addListener(ModelEventListener listener) {
+        if(listener == null) {
+            throw new IllegalArgumentException("ModelEventDispatcher expects non-null listener");
+        }
+
+        if(!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    protected void removeListener(ModelEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    protected void dispatch(ModelEvent event) {
+        if(listeners.isEmpty()) {
+            return;
+        }
+
+        // copied, so that a listener removing itself does not upset the loop
+        for(ModelEventListener listener : new ArrayList<>(listeners)) {
+            listener.onModelEvent(event);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package ca.cmpt276.flame.model;
+
+/**
+ * ModelEventListener is told about each change a manager makes to the model, on the
+ * main thread, right after the change is made.
+ */
+public interface ModelEventListener {
+    void onModelEvent(ModelEvent event);
+}
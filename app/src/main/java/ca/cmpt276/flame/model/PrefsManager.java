@@ -1,46 +1,245 @@
 package ca.cmpt276.flame.model;
 
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * PrefsManager is a static class that provides utility methods for getting objects
- * from SharedPreferences and persisting objects to SharedPreferences. It is used
- * by all model classes that need to be persisted.
+ * from storage and persisting objects to storage. It is used by all model classes
+ * that need to be persisted. Where the objects end up depends on the StorageBackend
+ * it is initialized with (SharedPreferences by default).
+ *
+ * Persisting is write-behind: a persisted object is only marked dirty, and shortly
+ * afterwards (or on flush()) every dirty object is serialized once, no matter how many
+ * times it changed. The writes then happen in order on a single background thread, so
+ * the last write to a key always wins. Changes to the flip history go out in the same
+ * batch (ahead of the objects), so the saved history and the statistics derived from it
+ * are written together. A task queued with runAfterWrite() runs on that thread after the
+ * next of these writes, once the records it depends on are saved.
+ *
+ * All model classes are (de)serialized by one shared Gson instance using the hand-written
+ * GsonAdapter of each class, so no reflection is needed.
  */
 public class PrefsManager {
+    private static final long WRITE_DELAY_MILLIS = 250;
+    private static final Object REMOVED_RECORD = new Object();
+    private static final ExecutorService WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final Runnable FLUSH_RUNNABLE = PrefsManager::flush;
+    private static final Map<String, Object> DIRTY_OBJS = new LinkedHashMap<>();
+    private static final Map<String, Map<Long, Object>> DIRTY_RECORDS = new LinkedHashMap<>();
+    private static final List<Runnable> FLIP_HISTORY_WRITES = new ArrayList<>();
+    private static final List<Runnable> AFTER_WRITE_TASKS = new ArrayList<>();
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Child.class, new Child.GsonAdapter().nullSafe())
+            .registerTypeAdapter(Task.class, new Task.GsonAdapter().nullSafe())
+            .registerTypeAdapter(ChildrenQueue.class, new ChildrenQueue.GsonAdapter().nullSafe())
+            .registerTypeAdapter(FlipHistoryEntry.class, new FlipHistoryEntry.GsonAdapter().nullSafe())
+            .registerTypeAdapter(ChildrenManager.class, new ChildrenManager.GsonAdapter().nullSafe())
+            .registerTypeAdapter(TaskManager.class, new TaskManager.GsonAdapter().nullSafe())
+            .registerTypeAdapter(FlipManager.class, new FlipManager.GsonAdapter().nullSafe())
+            .registerTypeAdapter(FlipStatistics.class, new FlipStatistics.GsonAdapter().nullSafe())
+            .registerTypeAdapter(TimeoutManager.class, new TimeoutManager.GsonAdapter().nullSafe())
+            .registerTypeAdapter(BreathsManager.class, new BreathsManager.GsonAdapter().nullSafe())
+            .create();
     private static SharedPreferences sharedPrefs;
+    private static StorageBackend storageBackend;
+    private static boolean isFlushScheduled;
 
     private PrefsManager() {
         // disallow instances of PrefsManager
     }
 
-    public static void init(SharedPreferences sharedPrefs) {
+    public static void init(SharedPreferences sharedPrefs, StorageBackend storageBackend) {
         PrefsManager.sharedPrefs = sharedPrefs;
+        PrefsManager.storageBackend = storageBackend;
+    }
+
+    // serializes everything that is dirty and queues it to be written; call when the app may be closed
+    public static void flush() {
+        MAIN_HANDLER.removeCallbacks(FLUSH_RUNNABLE);
+        isFlushScheduled = false;
+
+        List<Runnable> flipHistoryWrites = new ArrayList<>(FLIP_HISTORY_WRITES);
+        FLIP_HISTORY_WRITES.clear();
+        List<Runnable> afterWriteTasks = new ArrayList<>(AFTER_WRITE_TASKS);
+        AFTER_WRITE_TASKS.clear();
+
+        if(flipHistoryWrites.isEmpty() && DIRTY_OBJS.isEmpty() && DIRTY_RECORDS.isEmpty()) {
+            runAfterWriteTasks(afterWriteTasks);
+            return;
+        }
+
+        // serialize here, on the thread that owns the model, so that the background
+        // thread never reads an object while it is being changed
+        Map<String, String> objJsons = new LinkedHashMap<>();
+        for(Map.Entry<String, Object> dirtyObj : DIRTY_OBJS.entrySet()) {
+            objJsons.put(dirtyObj.getKey(), GSON.toJson(dirtyObj.getValue()));
+        }
+
+        Map<String, Map<Long, String>> recordJsons = new LinkedHashMap<>();
+        for(Map.Entry<String, Map<Long, Object>> dirtyTable : DIRTY_RECORDS.entrySet()) {
+            Map<Long, String> tableJsons = new LinkedHashMap<>();
+            for(Map.Entry<Long, Object> dirtyRecord : dirtyTable.getValue().entrySet()) {
+                Object record = dirtyRecord.getValue();
+                tableJsons.put(dirtyRecord.getKey(), record == REMOVED_RECORD ? null : GSON.toJson(record));
+            }
+            recordJsons.put(dirtyTable.getKey(), tableJsons);
+        }
+
+        DIRTY_OBJS.clear();
+        DIRTY_RECORDS.clear();
+
+        StorageBackend backend = getStorageBackend();
+        WRITE_EXECUTOR.execute(() -> {
+            for(Runnable flipHistoryWrite : flipHistoryWrites) {
+                flipHistoryWrite.run();
+            }
+            writeToBackend(backend, objJsons, recordJsons);
+        });
+        runAfterWriteTasks(afterWriteTasks);
     }
 
     protected static Object restoreObj(String sharedPrefsKey, Class<?> objClass) {
-        checkSharedPrefsNotNull();
-        String json = sharedPrefs.getString(sharedPrefsKey, "{}");
-        return (new Gson()).fromJson(json, objClass);
+        String json = getStorageBackend().getString(sharedPrefsKey);
+        if(json == null) {
+            json = "{}";
+        }
+        return GSON.fromJson(json, objClass);
     }
 
     protected static void persistObj(String sharedPrefsKey, Object obj) {
-        checkSharedPrefsNotNull();
-        SharedPreferences.Editor editor = sharedPrefs.edit();
-        String json = (new Gson()).toJson(obj);
-        editor.putString(sharedPrefsKey, json);
-        editor.apply();
+        checkInitialized();
+        DIRTY_OBJS.put(sharedPrefsKey, obj);
+        scheduleFlush();
+    }
+
+    protected static <T> List<T> restoreRecords(String table, Class<T> recordClass) {
+        List<T> records = new ArrayList<>();
+        for(String json : getStorageBackend().getRecords(table)) {
+            records.add(GSON.fromJson(json, recordClass));
+        }
+        return records;
+    }
+
+    protected static void persistRecord(String table, long id, Object record) {
+        checkInitialized();
+        getDirtyTable(table).put(id, record);
+        scheduleFlush();
+    }
+
+    protected static void removeRecord(String table, long id) {
+        checkInitialized();
+        getDirtyTable(table).put(id, REMOVED_RECORD);
+        scheduleFlush();
+    }
+
+    // runs the task on the write thread once everything persisted so far (and until the next flush) has been
+    // written, e.g. to delete a file only after no saved record can refer to it any more
+    public static void runAfterWrite(Runnable task) {
+        checkInitialized();
+        AFTER_WRITE_TASKS.add(task);
+        scheduleFlush();
+    }
+
+    protected static List<FlipHistoryEntry> restoreFlipHistory() {
+        return getStorageBackend().getFlipHistoryStore().restore();
+    }
+
+    // the flip history is already written incrementally, so each change is queued as is, in order
+    protected static void appendFlipHistory(FlipHistoryEntry entry) {
+        FlipHistoryStore store = getStorageBackend().getFlipHistoryStore();
+        queueFlipHistoryWrite(() -> store.append(entry));
+    }
+
+    protected static void removeChildFromFlipHistory(long childId, int numEntriesRemoved) {
+        FlipHistoryStore store = getStorageBackend().getFlipHistoryStore();
+        queueFlipHistoryWrite(() -> {
+            store.removeChild(childId, numEntriesRemoved);
+            store.compactIfNeeded();
+        });
+    }
+
+    protected static void replaceFlipHistory(List<FlipHistoryEntry> entries) {
+        FlipHistoryStore store = getStorageBackend().getFlipHistoryStore();
+        List<FlipHistoryEntry> entriesCopy = new ArrayList<>(entries);
+        queueFlipHistoryWrite(() -> store.replaceAll(entriesCopy));
+    }
+
+    // the shared Gson is thread safe, so it may also be used by the write thread
+    protected static Gson getGson() {
+        return GSON;
     }
 
     protected static SharedPreferences getSharedPrefs() {
-        checkSharedPrefsNotNull();
+        checkInitialized();
         return sharedPrefs;
     }
 
-    private static void checkSharedPrefsNotNull() {
-        if(sharedPrefs == null) {
+    private static void queueFlipHistoryWrite(Runnable write) {
+        FLIP_HISTORY_WRITES.add(write);
+        scheduleFlush();
+    }
+
+    private static void scheduleFlush() {
+        if(!isFlushScheduled) {
+            isFlushScheduled = true;
+            MAIN_HANDLER.postDelayed(FLUSH_RUNNABLE, WRITE_DELAY_MILLIS);
+        }
+    }
+
+    private static void runAfterWriteTasks(List<Runnable> tasks) {
+        for(Runnable task : tasks) {
+            WRITE_EXECUTOR.execute(task);
+        }
+    }
+
+    private static Map<Long, Object> getDirtyTable(String table) {
+        Map<Long, Object> dirtyTable = DIRTY_RECORDS.get(table);
+        if(dirtyTable == null) {
+            dirtyTable = new LinkedHashMap<>();
+            DIRTY_RECORDS.put(table, dirtyTable);
+        }
+        return dirtyTable;
+    }
+
+    // runs on the write thread; a null record JSON means the record was removed
+    private static void writeToBackend(StorageBackend backend, Map<String, String> objJsons,
+                                       Map<String, Map<Long, String>> recordJsons) {
+        for(Map.Entry<String, String> objJson : objJsons.entrySet()) {
+            backend.putString(objJson.getKey(), objJson.getValue());
+        }
+
+        for(Map.Entry<String, Map<Long, String>> tableJsons : recordJsons.entrySet()) {
+            String table = tableJsons.getKey();
+            for(Map.Entry<Long, String> recordJson : tableJsons.getValue().entrySet()) {
+                if(recordJson.getValue() == null) {
+                    backend.removeRecord(table, recordJson.getKey());
+                } else {
+                    backend.putRecord(table, recordJson.getKey(), recordJson.getValue());
+                }
+            }
+        }
+    }
+
+    private static StorageBackend getStorageBackend() {
+        checkInitialized();
+        return storageBackend;
+    }
+
+    private static void checkInitialized() {
+        if(sharedPrefs == null || storageBackend == null) {
             throw new IllegalStateException("PrefsManager requires initialization before use");
         }
     }
@@ -0,0 +1,153 @@
+package ca.cmpt276.flame.model;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ProfileImageDecoder decodes profile images at (close to) the size they are shown at,
+ * rather than at full resolution. The bounds are read first so that a large image can be
+ * subsampled while decoding, and images without transparency (JPEGs, and the store's WebP
+ * images and their smaller copies) are decoded as RGB_565, which takes half the memory. If subsampling alone does not get the image down
+ * to the target size, it is decoded into a reusable buffer from a small pool and then
+ * scaled, so scrolling through old, oversized images does not allocate a large bitmap
+ * each time. Only those intermediate buffers are pooled: the final bitmaps are shared
+ * through the ChildImageCache and so are never reused.
+ */
+public class ProfileImageDecoder {
+    private static final int MAX_POOLED_BITMAPS = 4;
+    private static final int BYTES_PER_PIXEL_ARGB_8888 = 4;
+    private static final int BYTES_PER_PIXEL_RGB_565 = 2;
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+    private static final String MIME_TYPE_WEBP = "image/webp";
+    private static final List<Bitmap> BITMAP_POOL = new ArrayList<>();
+
+    private ProfileImageDecoder() {
+        // disallow instances of ProfileImageDecoder
+    }
+
+    // returns null if the file could not be decoded
+    protected static Bitmap decodeFile(File file, int targetSize) {
+        String path = file.getPath();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+
+        if(options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, targetSize);
+        options.inPreferredConfig = getConfig(options.outMimeType);
+
+        // usually subsampling is enough (e.g. images saved at their display size)
+        if(Math.min(options.outWidth, options.outHeight) / options.inSampleSize <= targetSize) {
+            return BitmapFactory.decodeFile(path, options);
+        }
+
+        options.inMutable = true;
+        options.inBitmap = takeFromPool(getSampledByteCount(options));
+
+        Bitmap sampled;
+        try {
+            sampled = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled buffer could not be reused for this image after all
+            options.inBitmap = null;
+            sampled = BitmapFactory.decodeFile(path, options);
+        }
+
+        if(sampled == null) {
+            return null;
+        }
+
+        Bitmap scaled = scaleToTarget(sampled, targetSize);
+        if(scaled != sampled) {
+            returnToPool(sampled);
+        }
+        return scaled;
+    }
+
+    protected static Bitmap decodeResource(Resources resources, int resId, int targetSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, options);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, targetSize);
+        options.inPreferredConfig = getConfig(options.outMimeType);
+        return BitmapFactory.decodeResource(resources, resId, options);
+    }
+
+    // the largest power of two that keeps the shorter side at least targetSize pixels
+    private static int getSampleSize(int width, int height, int targetSize) {
+        int shorterSide = Math.min(width, height);
+        int sampleSize = 1;
+
+        while(shorterSide / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    private static Bitmap.Config getConfig(String mimeType) {
+        // JPEGs cannot have transparency, and the store's WebPs are made from opaque photos (see
+        // ProfileImageImporter), so neither needs an alpha channel
+        if(MIME_TYPE_JPEG.equals(mimeType) || MIME_TYPE_WEBP.equals(mimeType)) {
+            return Bitmap.Config.RGB_565;
+        }
+
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    // an upper bound, since the decoder rounds the subsampled size
+    private static int getSampledByteCount(BitmapFactory.Options options) {
+        int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        int bytesPerPixel = options.inPreferredConfig == Bitmap.Config.RGB_565
+                ? BYTES_PER_PIXEL_RGB_565 : BYTES_PER_PIXEL_ARGB_8888;
+        return width * height * bytesPerPixel;
+    }
+
+    private static Bitmap scaleToTarget(Bitmap bitmap, int targetSize) {
+        float scale = (float) targetSize / Math.min(bitmap.getWidth(), bitmap.getHeight());
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+    }
+
+    // returns a pooled buffer that is big enough, or null to let the decoder allocate one
+    private static Bitmap takeFromPool(int byteCount) {
+        synchronized(BITMAP_POOL) {
+            Iterator<Bitmap> itr = BITMAP_POOL.iterator();
+            while(itr.hasNext()) {
+                Bitmap bitmap = itr.next();
+                if(bitmap.getAllocationByteCount() >= byteCount) {
+                    itr.remove();
+                    return bitmap;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static void returnToPool(Bitmap bitmap) {
+        if(!bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+
+        synchronized(BITMAP_POOL) {
+            if(BITMAP_POOL.size() < MAX_POOLED_BITMAPS) {
+                BITMAP_POOL.add(bitmap);
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package ca.cmpt276.flame.model;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ProfileImageImporter turns a picked photo into a profile image in the background.
+ * Only the centre square of the photo is decoded (with BitmapRegionDecoder where the
+ * format allows it), subsampled so that no more than MAX_DECODE_PIXELS are ever held in
+ * memory, then scaled to Child.IMAGE_SIZE and written (as WebP) to its own staging file through
+ * a temp file and a rename, so a half-written image is never left behind. Its smaller copies
+ * are written next to it first, so saving the image does no decoding. The staged file
+ * is moved into the ProfileImageStore by ChildrenManager.setChildImage() once the user saves.
+ * Progress and the result are reported on the main thread, and an import can be cancelled.
+ */
+public class ProfileImageImporter {
+    private static final ExecutorService IMPORT_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final int MAX_DECODE_PIXELS = 1024 * 1024;
+    private static final String STAGED_FILE_PREFIX = "staged_profile_";
+    // each import is staged under its own name, so one that fails cannot overwrite an earlier one's smaller copies
+    private static final AtomicLong NEXT_IMPORT_ID = new AtomicLong(1L);
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int PROGRESS_BOUNDS_READ = 10;
+    private static final int PROGRESS_DECODED = 60;
+    private static final int PROGRESS_SCALED = 75;
+    private static final int PROGRESS_DONE = 100;
+
+    private final Listener listener;
+    private final File stagedFile;
+    private volatile boolean isCancelled = false;
+    private Future<?> future;
+
+    /**
+     * Listener is told (on the main thread) how an import is going
+     */
+    public interface Listener {
+        void onProgress(int percent);
+
+        // stagedFile holds the saved image; preview is the same image, ready to show
+        void onImported(File stagedFile, Bitmap preview);
+
+        void onFailed();
+    }
+
+    private ProfileImageImporter(Context context, Listener listener) {
+        this.listener = listener;
+        String stagedFileName = STAGED_FILE_PREFIX + NEXT_IMPORT_ID.getAndIncrement() + ProfileImageStore.FILE_EXTENSION;
+        this.stagedFile = new File(context.getCacheDir(), stagedFileName);
+    }
+
+    // imports an image picked from the gallery (or any other content URI)
+    public static ProfileImageImporter importImage(Context context, Uri imageUri, Listener listener) {
+        ProfileImageImporter importer = new ProfileImageImporter(context, listener);
+        ContentResolver contentResolver = context.getApplicationContext().getContentResolver();
+        importer.future = IMPORT_EXECUTOR.submit(() -> importer.run(() -> importer.decodeCentre(contentResolver, imageUri)));
+        return importer;
+    }
+
+    // imports a photo that is already in memory (e.g. the thumbnail returned by the camera)
+    public static ProfileImageImporter importImage(Context context, Bitmap image, Listener listener) {
+        ProfileImageImporter importer = new ProfileImageImporter(context, listener);
+        importer.future = IMPORT_EXECUTOR.submit(() -> importer.run(() -> cropCentre(image)));
+        return importer;
+    }
+
+    // no more callbacks are made once cancelled
+    public void cancel() {
+        isCancelled = true;
+        if(future != null) {
+            future.cancel(true);
+        }
+    }
+
+    private void run(Decoder decoder) {
+        try {
+            Bitmap square = decoder.decode();
+            checkNotCancelled();
+            postProgress(PROGRESS_DECODED);
+
+            Bitmap scaled = Bitmap.createScaledBitmap(square, Child.IMAGE_SIZE, Child.IMAGE_SIZE, true);
+            checkNotCancelled();
+            postProgress(PROGRESS_SCALED);
+
+            ProfileImageStore.writeScaledFiles(scaled, stagedFile);
+            checkNotCancelled();
+            writeAtomically(scaled);
+            checkNotCancelled();
+            postProgress(PROGRESS_DONE);
+
+            MAIN_HANDLER.post(() -> {
+                if(!isCancelled) {
+                    listener.onImported(stagedFile, scaled);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            MAIN_HANDLER.post(() -> {
+                if(!isCancelled) {
+                    listener.onFailed();
+                }
+            });
+        }
+    }
+
+    private Bitmap decodeCentre(ContentResolver contentResolver, Uri imageUri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = openStream(contentResolver, imageUri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+
+        if(options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("ProfileImageImporter could not read the image size");
+        }
+        checkNotCancelled();
+        postProgress(PROGRESS_BOUNDS_READ);
+
+        Rect centre = getCentreSquare(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inSampleSize = getSampleSize(centre.width(), centre.width());
+
+        try (InputStream in = openStream(contentResolver, imageUri)) {
+            BitmapRegionDecoder regionDecoder = BitmapRegionDecoder.newInstance(in, false);
+            try {
+                Bitmap square = regionDecoder.decodeRegion(centre, options);
+                if(square != null) {
+                    return square;
+                }
+            } finally {
+                regionDecoder.recycle();
+            }
+        } catch (IOException e) {
+            // not a format the region decoder supports, so decode it all (still subsampled) below
+        }
+
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight);
+        Bitmap whole;
+        try (InputStream in = openStream(contentResolver, imageUri)) {
+            whole = BitmapFactory.decodeStream(in, null, options);
+        }
+
+        if(whole == null) {
+            throw new IOException("ProfileImageImporter could not decode the image");
+        }
+        return cropCentre(whole);
+    }
+
+    private static Bitmap cropCentre(Bitmap image) {
+        Rect centre = getCentreSquare(image.getWidth(), image.getHeight());
+        return Bitmap.createBitmap(image, centre.left, centre.top, centre.width(), centre.height());
+    }
+
+    private static Rect getCentreSquare(int width, int height) {
+        int size = Math.min(width, height);
+        int left = (width - size) / 2;
+        int top = (height - size) / 2;
+        return new Rect(left, top, left + size, top + size);
+    }
+
+    // keeps the shorter side at least Child.IMAGE_SIZE, but never decodes more than MAX_DECODE_PIXELS
+    private static int getSampleSize(int width, int height) {
+        int sampleSize = 1;
+
+        while(Math.min(width, height) / (sampleSize * 2) >= Child.IMAGE_SIZE) {
+            sampleSize *= 2;
+        }
+        while((long) (width / sampleSize) * (height / sampleSize) > MAX_DECODE_PIXELS) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    // the image is written to a temp file first, so the staged file is either complete or not there at all
+    private void writeAtomically(Bitmap image) throws IOException {
+        File tempFile = new File(stagedFile.getPath() + TEMP_FILE_SUFFIX);
+
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            if(!ProfileImageStore.compress(image, out)) {
+                throw new IOException("ProfileImageImporter could not encode the image");
+            }
+        }
+
+        if(isCancelled || !tempFile.renameTo(stagedFile)) {
+            tempFile.delete();
+            throw new IOException("ProfileImageImporter could not save the image");
+        }
+    }
+
+    private static InputStream openStream(ContentResolver contentResolver, Uri imageUri) throws IOException {
+        InputStream in = contentResolver.openInputStream(imageUri);
+        if(in == null) {
+            throw new IOException("ProfileImageImporter could not open the image");
+        }
+        return in;
+    }
+
+    private void checkNotCancelled() {
+        if(isCancelled || Thread.currentThread().isInterrupted()) {
+            throw new IllegalStateException("ProfileImageImporter was cancelled");
+        }
+    }
+
+    private void postProgress(int percent) {
+        MAIN_HANDLER.post(() -> {
+            if(!isCancelled) {
+                listener.onProgress(percent);
+            }
+        });
+    }
+
+    /**
+     * Decoder produces the square (but not yet scaled) image to import
+     */
+    private interface Decoder {
+        Bitmap decode() throws IOException;
+    }
+}
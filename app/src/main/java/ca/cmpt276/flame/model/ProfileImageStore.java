@@ -0,0 +1,338 @@
+package ca.cmpt276.flame.model;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ProfileImageStore is a singleton, content-addressed store for profile images. Each
+ * image is saved once, named by the SHA-256 hash of its (WebP encoded) contents, and a
+ * Child refers to its image by that hash. Children that use the same photo share one
+ * file, which is reference counted and deleted once no child uses it. Since the hash
+ * changes whenever the image does, it also serves as an exact version for caches.
+ * Alongside each full size image, smaller copies (Child.SMALL_IMAGE_SIZE and
+ * Child.MEDIUM_IMAGE_SIZE) are saved as "<hash>_<size>.webp", so that small views never
+ * decode and scale down the full image. The ProfileImageImporter writes them next to the
+ * staged image in the background, and add() moves them in along with it; images stored
+ * without them are given them once, on the write thread. Images saved by older versions
+ * of the app (one "<id>profile.jpg" per child) are moved into the store when it is
+ * initialized.
+ *
+ * Children are saved write-behind by the PrefsManager, so a file is only deleted on its
+ * write thread once the records that stopped using it have been written: until then, the
+ * saved children may still refer to it. Unused files (and old images that have been moved
+ * into the store) are cleaned up the same way.
+ */
+public class ProfileImageStore {
+    public static final String FILE_EXTENSION = ".webp";
+    private static final String DIRECTORY_NAME = "childImageDir";
+    private static final String LEGACY_FILE_SUFFIX = "profile.jpg";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final char SIZE_SEPARATOR = '_';
+    private static final int[] SCALED_IMAGE_SIZES = {Child.SMALL_IMAGE_SIZE, Child.MEDIUM_IMAGE_SIZE};
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int IMAGE_QUALITY = 80;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int HEX_RADIX = 16;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int HIGH_NIBBLE_SHIFT = 4;
+    private static final int LOW_NIBBLE_MASK = 0x0F;
+    private static ProfileImageStore profileImageStore;
+    private final File directory;
+    private final Map<String, Integer> refCounts = new HashMap<>();
+
+    // must be called before the store is used; the children's images are only counted (and old ones moved
+    // into the store) when the ChildrenManager is first used, so this does no work on the process's startup
+    public static void init(Context context) {
+        if(profileImageStore == null) {
+            ContextWrapper cw = new ContextWrapper(context.getApplicationContext());
+            profileImageStore = new ProfileImageStore(cw.getDir(DIRECTORY_NAME, Context.MODE_PRIVATE));
+        }
+    }
+
+    public static ProfileImageStore getInstance() {
+        if(profileImageStore == null) {
+            throw new IllegalStateException("ProfileImageStore requires initialization before use");
+        }
+
+        return profileImageStore;
+    }
+
+    private ProfileImageStore(File directory) {
+        this.directory = directory;
+    }
+
+    // lossy WebP is much smaller than the JPEGs saved by older versions, at no visible cost for profile pictures
+    public static boolean compress(Bitmap image, OutputStream out) {
+        Bitmap.CompressFormat format;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            format = Bitmap.CompressFormat.WEBP_LOSSY;
+        } else {
+            format = Bitmap.CompressFormat.WEBP;
+        }
+
+        return image.compress(format, IMAGE_QUALITY, out);
+    }
+
+    public File getFile(String hash) {
+        return new File(directory, hash + FILE_EXTENSION);
+    }
+
+    // the copy of the image saved at imageSize, or the full image if there is no such copy
+    public File getFile(String hash, int imageSize) {
+        if(imageSize == Child.IMAGE_SIZE) {
+            return getFile(hash);
+        }
+
+        File scaledFile = getScaledFile(hash, imageSize);
+        if(!scaledFile.exists()) {
+            return getFile(hash);
+        }
+        return scaledFile;
+    }
+
+    // moves the image file and its smaller copies (see writeScaledFiles) into the store, deleting any the store
+    // already has, and returns its hash
+    protected String add(File imageFile) throws IOException {
+        String hash = hashFile(imageFile);
+        File storedFile = getFile(hash);
+
+        // held until the image is counted, so the write thread cannot delete it as unused in between
+        synchronized(this) {
+            if(storedFile.exists()) {
+                imageFile.delete();
+            } else if(!imageFile.renameTo(storedFile)) {
+                throw new IOException("ProfileImageStore could not move the image into the store");
+            }
+
+            // a missing copy is written on the next launch (getFile() falls back to the full image until then)
+            for(int imageSize : SCALED_IMAGE_SIZES) {
+                File scaledFile = getScaledFile(imageFile, imageSize);
+                File storedScaledFile = getScaledFile(storedFile, imageSize);
+                if(storedScaledFile.exists() || !scaledFile.renameTo(storedScaledFile)) {
+                    scaledFile.delete();
+                }
+            }
+            acquire(hash);
+        }
+
+        return hash;
+    }
+
+    // the files are deleted once the child that stopped using the image has been saved (see class comment)
+    protected synchronized void release(String hash) {
+        if(hash == null) {
+            return;
+        }
+
+        Integer refCount = refCounts.get(hash);
+        if(refCount == null || refCount <= 1) {
+            refCounts.remove(hash);
+            PrefsManager.runAfterWrite(() -> deleteIfUnused(hash));
+        } else {
+            refCounts.put(hash, refCount - 1);
+        }
+    }
+
+    private synchronized void acquire(String hash) {
+        Integer refCount = refCounts.get(hash);
+        refCounts.put(hash, refCount == null ? 1 : refCount + 1);
+    }
+
+    // runs on the write thread; the image may have been added again since it was released
+    private synchronized void deleteIfUnused(String hash) {
+        if(refCounts.containsKey(hash)) {
+            return;
+        }
+
+        getFile(hash).delete();
+        for(int imageSize : SCALED_IMAGE_SIZES) {
+            getScaledFile(hash, imageSize).delete();
+        }
+    }
+
+    // counts the references of every child and moves legacy images into the store, then deletes unused files;
+    // called (on the main thread) once the ChildrenManager has restored its children
+    protected void load(ChildrenManager childrenManager) {
+        Set<String> imageHashes = new HashSet<>();
+        Set<Long> legacyChildIds = new HashSet<>();
+
+        for(Child child : childrenManager) {
+            if(child.hasLegacyImage()) {
+                migrateLegacyImage(childrenManager, child);
+            } else if(child.hasImage()) {
+                acquire(child.getImageHash());
+            }
+
+            if(child.hasImage()) {
+                imageHashes.add(child.getImageHash());
+            }
+
+            // an image that could not be moved is kept and tried again next time
+            if(child.hasLegacyImage()) {
+                legacyChildIds.add(child.getId());
+            }
+        }
+
+        PrefsManager.runAfterWrite(() -> {
+            writeMissingScaledFiles(imageHashes);
+            deleteUnusedFiles(legacyChildIds);
+        });
+    }
+
+    // runs on the write thread; images stored before the smaller copies were saved get them now (only once)
+    private void writeMissingScaledFiles(Set<String> imageHashes) {
+        for(String hash : imageHashes) {
+            File storedFile = getFile(hash);
+            boolean isMissing = false;
+            for(int imageSize : SCALED_IMAGE_SIZES) {
+                isMissing |= !getScaledFile(storedFile, imageSize).exists();
+            }
+
+            if(isMissing) {
+                Bitmap image = BitmapFactory.decodeFile(storedFile.getPath());
+                if(image != null) {
+                    writeScaledFiles(image, storedFile);
+                }
+            }
+        }
+    }
+
+    // runs on the write thread, after the migrated children have been saved with their new images; e.g. an
+    // image whose child was deleted just before the app was killed, or one the old version of a child used
+    private void deleteUnusedFiles(Set<Long> legacyChildIds) {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return;
+        }
+
+        for(File file : files) {
+            String name = file.getName();
+            if(name.endsWith(LEGACY_FILE_SUFFIX)) {
+                if(!isLegacyFileInUse(name, legacyChildIds)) {
+                    file.delete();
+                }
+            } else if(!name.endsWith(FILE_EXTENSION)) {
+                file.delete();
+            } else {
+                deleteIfUnused(getHash(name));
+            }
+        }
+    }
+
+    private static boolean isLegacyFileInUse(String fileName, Set<Long> legacyChildIds) {
+        try {
+            String childId = fileName.substring(0, fileName.length() - LEGACY_FILE_SUFFIX.length());
+            return legacyChildIds.contains(Long.parseLong(childId));
+        } catch (NumberFormatException e) {
+            // not named by this app, so leave it alone
+            return true;
+        }
+    }
+
+    // the old image is left where it is, and only deleted once the child has been saved without it
+    private void migrateLegacyImage(ChildrenManager childrenManager, Child child) {
+        File legacyFile = new File(directory, child.getId() + LEGACY_FILE_SUFFIX);
+        Bitmap image = BitmapFactory.decodeFile(legacyFile.getPath());
+
+        if(image == null) {
+            // missing or unreadable, so there is nothing to move
+            childrenManager.migrateLegacyImage(child, null);
+            return;
+        }
+
+        File tempFile = new File(directory, child.getId() + TEMP_FILE_SUFFIX);
+        try {
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                if(!compress(image, out)) {
+                    return;
+                }
+            }
+            childrenManager.migrateLegacyImage(child, add(tempFile));
+        } catch (IOException e) {
+            // e.g. the storage is full; the child keeps its legacy image until next time
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private File getScaledFile(String hash, int imageSize) {
+        return getScaledFile(getFile(hash), imageSize);
+    }
+
+    // the smaller copy of a (".webp") image file is saved next to it, as "<name>_<size>.webp"
+    private static File getScaledFile(File imageFile, int imageSize) {
+        String name = imageFile.getName();
+        String baseName = name.substring(0, name.length() - FILE_EXTENSION.length());
+        return new File(imageFile.getParentFile(), baseName + SIZE_SEPARATOR + imageSize + FILE_EXTENSION);
+    }
+
+    // the hash part of a file name, whether it is a full size image or a smaller copy
+    private static String getHash(String fileName) {
+        int end = fileName.indexOf(SIZE_SEPARATOR);
+        if(end == -1) {
+            end = fileName.length() - FILE_EXTENSION.length();
+        }
+        return fileName.substring(0, end);
+    }
+
+    // writes the smaller copies of image next to imageFile (off the main thread, since this decodes and encodes);
+    // a copy that cannot be written is left out rather than left stale, since getFile() falls back to the full image
+    protected static void writeScaledFiles(Bitmap image, File imageFile) {
+        for(int imageSize : SCALED_IMAGE_SIZES) {
+            File scaledFile = getScaledFile(imageFile, imageSize);
+            Bitmap scaled = Bitmap.createScaledBitmap(image, imageSize, imageSize, true);
+            File tempFile = new File(scaledFile.getPath() + TEMP_FILE_SUFFIX);
+            boolean isWritten;
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                isWritten = compress(scaled, out);
+            } catch (IOException e) {
+                isWritten = false;
+            }
+
+            if(!isWritten || !tempFile.renameTo(scaledFile)) {
+                tempFile.delete();
+                scaledFile.delete();
+            }
+        }
+    }
+
+    private static String hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("ProfileImageStore requires " + HASH_ALGORITHM, e);
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int numRead;
+            while((numRead = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, numRead);
+            }
+        }
+
+        StringBuilder hash = new StringBuilder();
+        for(byte b : digest.digest()) {
+            hash.append(Character.forDigit((b & BYTE_MASK) >> HIGH_NIBBLE_SHIFT, HEX_RADIX));
+            hash.append(Character.forDigit(b & LOW_NIBBLE_MASK, HEX_RADIX));
+        }
+        return hash.toString();
+    }
+}
@@ -0,0 +1,208 @@
+package ca.cmpt276.flame.model;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLiteBackend is a StorageBackend that keeps the model in an SQLite database.
+ * Each child and task is its own row in the records table (keyed by table and ID),
+ * and every flip is a row in the flips table, indexed by child, so that adding,
+ * renaming or removing something only touches the affected rows.
+ */
+public class SQLiteBackend extends SQLiteOpenHelper implements StorageBackend {
+    private static final String DATABASE_NAME = "practical_parent.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String MIGRATED_KEY = "MIGRATED_FROM_SHARED_PREFS";
+
+    private static final String TABLE_OBJECTS = "objects";
+    private static final String TABLE_RECORDS = "records";
+    private static final String TABLE_FLIPS = "flips";
+    private static final String COL_KEY = "key";
+    private static final String COL_TABLE = "tbl";
+    private static final String COL_ID = "id";
+    private static final String COL_JSON = "json";
+    private static final String COL_CHILD_ID = "child_id";
+    private static final String COL_RESULT = "result";
+    private static final String COL_WON = "won";
+    private static final String COL_DATE = "date";
+
+    private static SQLiteBackend sqliteBackend;
+    private final SQLiteFlipHistoryStore flipHistoryStore = new SQLiteFlipHistoryStore();
+
+    public static SQLiteBackend getInstance(Context context) {
+        if(sqliteBackend == null) {
+            sqliteBackend = new SQLiteBackend(context.getApplicationContext());
+        }
+
+        return sqliteBackend;
+    }
+
+    private SQLiteBackend(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_OBJECTS + " ("
+                + COL_KEY + " TEXT PRIMARY KEY, "
+                + COL_JSON + " TEXT NOT NULL)");
+        db.execSQL("CREATE TABLE " + TABLE_RECORDS + " ("
+                + COL_TABLE + " TEXT NOT NULL, "
+                + COL_ID + " INTEGER NOT NULL, "
+                + COL_JSON + " TEXT NOT NULL, "
+                + "PRIMARY KEY (" + COL_TABLE + ", " + COL_ID + "))");
+        db.execSQL("CREATE TABLE " + TABLE_FLIPS + " ("
+                + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COL_CHILD_ID + " INTEGER NOT NULL, "
+                + COL_RESULT + " TEXT NOT NULL, "
+                + COL_WON + " INTEGER NOT NULL, "
+                + COL_DATE + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX " + TABLE_FLIPS + "_" + COL_CHILD_ID
+                + " ON " + TABLE_FLIPS + " (" + COL_CHILD_ID + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // only one version of the database exists so far
+    }
+
+    // one-time copy of everything saved by the default backend, so switching backends keeps the user's data
+    public void migrateFrom(SharedPrefsBackend legacyBackend) {
+        if(getString(MIGRATED_KEY) != null) {
+            return;
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            legacyBackend.copyTo(this);
+            putString(MIGRATED_KEY, Boolean.TRUE.toString());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public String getString(String key) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_OBJECTS, new String[]{COL_JSON},
+                COL_KEY + " = ?", new String[]{key}, null, null, null)) {
+            if(cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void putString(String key, String json) {
+        ContentValues values = new ContentValues();
+        values.put(COL_KEY, key);
+        values.put(COL_JSON, json);
+        getWritableDatabase().insertWithOnConflict(TABLE_OBJECTS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    @Override
+    public List<String> getRecords(String table) {
+        List<String> records = new ArrayList<>();
+
+        try (Cursor cursor = getReadableDatabase().query(TABLE_RECORDS, new String[]{COL_JSON},
+                COL_TABLE + " = ?", new String[]{table}, null, null, COL_ID)) {
+            while(cursor.moveToNext()) {
+                records.add(cursor.getString(0));
+            }
+        }
+
+        return records;
+    }
+
+    @Override
+    public void putRecord(String table, long id, String json) {
+        ContentValues values = new ContentValues();
+        values.put(COL_TABLE, table);
+        values.put(COL_ID, id);
+        values.put(COL_JSON, json);
+        getWritableDatabase().insertWithOnConflict(TABLE_RECORDS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    @Override
+    public void removeRecord(String table, long id) {
+        getWritableDatabase().delete(TABLE_RECORDS, COL_TABLE + " = ? AND " + COL_ID + " = ?",
+                new String[]{table, String.valueOf(id)});
+    }
+
+    @Override
+    public FlipHistoryStore getFlipHistoryStore() {
+        return flipHistoryStore;
+    }
+
+    /**
+     * SQLiteFlipHistoryStore stores one row per flip in the flips table
+     */
+    private class SQLiteFlipHistoryStore implements FlipHistoryStore {
+        @Override
+        public List<FlipHistoryEntry> restore() {
+            List<FlipHistoryEntry> entries = new ArrayList<>();
+
+            try (Cursor cursor = getReadableDatabase().query(TABLE_FLIPS,
+                    new String[]{COL_CHILD_ID, COL_RESULT, COL_WON, COL_DATE},
+                    null, null, null, null, COL_ID)) {
+                while(cursor.moveToNext()) {
+                    entries.add(new FlipHistoryEntry(
+                            cursor.getLong(0),
+                            FlipManager.CoinSide.valueOf(cursor.getString(1)),
+                            cursor.getInt(2) != 0,
+                            cursor.getLong(3)));
+                }
+            }
+
+            return entries;
+        }
+
+        @Override
+        public void append(FlipHistoryEntry entry) {
+            getWritableDatabase().insert(TABLE_FLIPS, null, toContentValues(entry));
+        }
+
+        @Override
+        public void removeChild(long childId, int numEntriesRemoved) {
+            getWritableDatabase().delete(TABLE_FLIPS, COL_CHILD_ID + " = ?", new String[]{String.valueOf(childId)});
+        }
+
+        @Override
+        public void compactIfNeeded() {
+            // SQLite reuses the space of deleted rows by itself
+        }
+
+        @Override
+        public void replaceAll(List<FlipHistoryEntry> entries) {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.delete(TABLE_FLIPS, null, null);
+                for(FlipHistoryEntry entry : entries) {
+                    db.insert(TABLE_FLIPS, null, toContentValues(entry));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        private ContentValues toContentValues(FlipHistoryEntry entry) {
+            ContentValues values = new ContentValues();
+            values.put(COL_CHILD_ID, entry.getChildId());
+            values.put(COL_RESULT, entry.getResult().name());
+            values.put(COL_WON, entry.wasWon() ? 1 : 0);
+            values.put(COL_DATE, entry.getDateMillis());
+            return values;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ca.cmpt276.flame.model;
+
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SharedPrefsBackend is the default StorageBackend. Singletons and records are
+ * saved as strings in SharedPreferences (each record under its own key), and the
+ * flip history is saved in a FlipHistoryJournal inside the app's data directory.
+ */
+public class SharedPrefsBackend implements StorageBackend {
+    private static final String RECORD_KEY_PREFIX = "RECORD:";
+    private static final char RECORD_KEY_SEPARATOR = ':';
+    private final SharedPreferences sharedPrefs;
+    private final FlipHistoryJournal flipHistoryJournal;
+
+    public SharedPrefsBackend(SharedPreferences sharedPrefs, File dataDir) {
+        this.sharedPrefs = sharedPrefs;
+        this.flipHistoryJournal = new FlipHistoryJournal(dataDir);
+    }
+
+    @Override
+    public String getString(String key) {
+        return sharedPrefs.getString(key, null);
+    }
+
+    @Override
+    public void putString(String key, String json) {
+        SharedPreferences.Editor editor = sharedPrefs.edit();
+        editor.putString(key, json);
+        editor.apply();
+    }
+
+    @Override
+    public List<String> getRecords(String table) {
+        String tablePrefix = getRecordKeyPrefix(table);
+        TreeMap<Long, String> records = new TreeMap<>();
+
+        for(Map.Entry<String, ?> entry : sharedPrefs.getAll().entrySet()) {
+            if(entry.getKey().startsWith(tablePrefix) && entry.getValue() instanceof String) {
+                long id = Long.parseLong(entry.getKey().substring(tablePrefix.length()));
+                records.put(id, (String) entry.getValue());
+            }
+        }
+
+        return new ArrayList<>(records.values());
+    }
+
+    @Override
+    public void putRecord(String table, long id, String json) {
+        putString(getRecordKeyPrefix(table) + id, json);
+    }
+
+    @Override
+    public void removeRecord(String table, long id) {
+        SharedPreferences.Editor editor = sharedPrefs.edit();
+        editor.remove(getRecordKeyPrefix(table) + id);
+        editor.apply();
+    }
+
+    @Override
+    public FlipHistoryStore getFlipHistoryStore() {
+        return flipHistoryJournal;
+    }
+
+    // copies everything saved by this backend into another backend
+    protected void copyTo(StorageBackend target) {
+        for(Map.Entry<String, ?> entry : sharedPrefs.getAll().entrySet()) {
+            String key = entry.getKey();
+
+            // other settings (e.g. whether music is enabled) are not part of the model
+            if(!(entry.getValue() instanceof String)) {
+                continue;
+            }
+
+            if(key.startsWith(RECORD_KEY_PREFIX)) {
+                int separatorIndex = key.lastIndexOf(RECORD_KEY_SEPARATOR);
+                String table = key.substring(RECORD_KEY_PREFIX.length(), separatorIndex);
+                long id = Long.parseLong(key.substring(separatorIndex + 1));
+                target.putRecord(table, id, (String) entry.getValue());
+            } else {
+                target.putString(key, (String) entry.getValue());
+            }
+        }
+
+        target.getFlipHistoryStore().replaceAll(flipHistoryJournal.restore());
+    }
+
+    private String getRecordKeyPrefix(String table) {
+        return RECORD_KEY_PREFIX + table + RECORD_KEY_SEPARATOR;
+    }
+}
@@ -0,0 +1,26 @@
+package ca.cmpt276.flame.model;
+
+import java.util.List;
+
+/**
+ * StorageBackend is where PrefsManager keeps the serialized model. Singletons
+ * are stored as a single JSON string under a key, while collections that change
+ * one item at a time (e.g. children and tasks) are stored as one JSON record per
+ * item so that a change only rewrites that item. The flip history has its own
+ * FlipHistoryStore since it is by far the largest part of the model.
+ */
+public interface StorageBackend {
+    // returns null if nothing has been stored under the key
+    String getString(String key);
+
+    void putString(String key, String json);
+
+    // returns the records of the table, ordered by ID
+    List<String> getRecords(String table);
+
+    void putRecord(String table, long id, String json);
+
+    void removeRecord(String table, long id);
+
+    FlipHistoryStore getFlipHistoryStore();
+}
@@ -1,5 +1,11 @@
 package ca.cmpt276.flame.model;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
 /**
  * Task represents a single task. A hash map of tasks is managed by the TaskManager.
  * Each task contains a ChildrenQueue to keep track of who goes next. Each task is
@@ -8,16 +14,24 @@ package ca.cmpt276.flame.model;
 public class Task {
     public static final long NONE = 0L;
     private final long taskId;
-    private final ChildrenQueue childrenQueue = new ChildrenQueue();
+    private final ChildrenQueue childrenQueue;
     private String name;
     private String desc;
 
     protected Task(String name, String desc) {
         taskId = TaskManager.getInstance().getNextTaskId();
+        childrenQueue = new ChildrenQueue();
         setName(name);
         setDesc(desc);
     }
 
+    private Task(long taskId, ChildrenQueue childrenQueue, String name, String desc) {
+        this.taskId = taskId;
+        this.childrenQueue = childrenQueue;
+        this.name = name;
+        this.desc = desc;
+    }
+
     public long getId() {
         return taskId;
     }
@@ -50,12 +64,75 @@ public class Task {
         return childrenQueue.getNext();
     }
 
-    protected void takeTurn() {
-        childrenQueue.takeTurn();
+    // returns the child who took the turn (or null if there are no children)
+    protected Child takeTurn() {
+        return childrenQueue.takeTurn();
+    }
+
+    // returns true if the child was in this task's queue
+    protected boolean removeChild(long childId) {
+        return childrenQueue.removeChild(childId);
     }
 
     @Override
     public String toString() {
         return name;
     }
+
+    /**
+     * GsonAdapter reads and writes a Task (including its queue) without using reflection
+     */
+    protected static class GsonAdapter extends TypeAdapter<Task> {
+        private static final String JSON_TASK_ID = "taskId";
+        private static final String JSON_CHILDREN_QUEUE = "childrenQueue";
+        private static final String JSON_NAME = "name";
+        private static final String JSON_DESC = "desc";
+        private final ChildrenQueue.GsonAdapter queueAdapter = new ChildrenQueue.GsonAdapter();
+
+        @Override
+        public void write(JsonWriter out, Task task) throws IOException {
+            out.beginObject();
+            out.name(JSON_TASK_ID).value(task.taskId);
+            out.name(JSON_CHILDREN_QUEUE);
+            queueAdapter.write(out, task.childrenQueue);
+            out.name(JSON_NAME).value(task.name);
+            out.name(JSON_DESC).value(task.desc);
+            out.endObject();
+        }
+
+        @Override
+        public Task read(JsonReader in) throws IOException {
+            long taskId = NONE;
+            ChildrenQueue childrenQueue = null;
+            String name = null;
+            String desc = "";
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case JSON_TASK_ID:
+                        taskId = in.nextLong();
+                        break;
+                    case JSON_CHILDREN_QUEUE:
+                        childrenQueue = queueAdapter.read(in);
+                        break;
+                    case JSON_NAME:
+                        name = in.nextString();
+                        break;
+                    case JSON_DESC:
+                        desc = in.nextString();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            if(childrenQueue == null) {
+                childrenQueue = new ChildrenQueue();
+            }
+
+            return new Task(taskId, childrenQueue, name, desc);
+        }
+    }
 }
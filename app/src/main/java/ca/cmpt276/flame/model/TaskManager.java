@@ -2,25 +2,38 @@ package ca.cmpt276.flame.model;
 
 import androidx.annotation.NonNull;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 
 /**
  * TaskManager is a singleton that manages multiple Task objects.
  * It is saved to SharedPreferences so that tasks persist when the
- * app is closed and restarted.
+ * app is closed and restarted. Each task (including its queue) is saved
+ * as its own record, so changing one task does not rewrite all the others.
+ * Each change is sent as a ModelEvent to the listeners added with addListener().
  */
 public class TaskManager implements Iterable<Task> {
     private static final String SHARED_PREFS_KEY = "SHARED_PREFS_TASK_MANAGER";
+    private static final String RECORDS_TABLE = "tasks";
     private static TaskManager taskManager;
     private long nextTaskId = 1L;
     private final LinkedHashMap<Long, Task> tasks = new LinkedHashMap<>();
+    private final ModelEventDispatcher eventDispatcher = new ModelEventDispatcher();
+
+    // older versions of the app saved every task inside the TaskManager JSON
+    private LinkedHashMap<Long, Task> legacyTasks;
 
     // Singleton
 
     public static TaskManager getInstance() {
         if(taskManager == null) {
             taskManager = (TaskManager) PrefsManager.restoreObj(SHARED_PREFS_KEY, TaskManager.class);
+            taskManager.restoreTasks();
         }
 
         return taskManager;
@@ -32,6 +45,22 @@ public class TaskManager implements Iterable<Task> {
         // singleton: prevent other classes from creating new ones
     }
 
+    private void restoreTasks() {
+        for(Task task : PrefsManager.restoreRecords(RECORDS_TABLE, Task.class)) {
+            tasks.put(task.getId(), task);
+        }
+
+        if(legacyTasks != null) {
+            // one-time migration: save each task as its own record, then drop them from the JSON
+            for(Task task : legacyTasks.values()) {
+                tasks.put(task.getId(), task);
+                persistTask(task);
+            }
+            legacyTasks = null;
+            persistToSharedPrefs();
+        }
+    }
+
     public Task getTask(long taskId) {
         if(tasks.containsKey(taskId)) {
             return tasks.get(taskId);
@@ -43,26 +72,49 @@ public class TaskManager implements Iterable<Task> {
     public void addTask(String name, String desc) {
         Task task = new Task(name, desc);
         tasks.put(task.getId(), task);
+        persistTask(task);
         persistToSharedPrefs();
+        eventDispatcher.dispatch(ModelEvent.forTask(ModelEvent.Type.TASK_ADDED, task.getId(), null));
     }
 
     public void modifyTask(Task task, String name, String desc) {
         checkValidTask(task);
         task.setName(name);
         task.setDesc(desc);
-        persistToSharedPrefs();
+        persistTask(task);
+        eventDispatcher.dispatch(ModelEvent.forTask(ModelEvent.Type.TASK_EDITED, task.getId(), null));
     }
 
     public void removeTask(Task task) {
         checkValidTask(task);
         tasks.remove(task.getId());
-        persistToSharedPrefs();
+        PrefsManager.removeRecord(RECORDS_TABLE, task.getId());
+        eventDispatcher.dispatch(ModelEvent.forTask(ModelEvent.Type.TASK_REMOVED, task.getId(), null));
     }
 
     public void takeTurn(Task task) {
         checkValidTask(task);
-        task.takeTurn();
-        persistToSharedPrefs();
+        Child child = task.takeTurn();
+        persistTask(task);
+        eventDispatcher.dispatch(ModelEvent.forTask(ModelEvent.Type.TASK_TURN_TAKEN, task.getId(), child));
+    }
+
+    // should only be called by the ChildrenManager when a child is deleted; no events are sent, since listeners
+    // are told once by the CHILD_REMOVED event, after the child is gone from the model
+    protected void removeChildFromQueues(long childId) {
+        for(Task task : tasks.values()) {
+            if(task.removeChild(childId)) {
+                persistTask(task);
+            }
+        }
+    }
+
+    public void addListener(ModelEventListener listener) {
+        eventDispatcher.addListener(listener);
+    }
+
+    public void removeListener(ModelEventListener listener) {
+        eventDispatcher.removeListener(listener);
     }
 
     protected long getNextTaskId() {
@@ -83,6 +135,10 @@ public class TaskManager implements Iterable<Task> {
         }
     }
 
+    private void persistTask(Task task) {
+        PrefsManager.persistRecord(RECORDS_TABLE, task.getId(), task);
+    }
+
     private void persistToSharedPrefs() {
         PrefsManager.persistObj(SHARED_PREFS_KEY, this);
     }
@@ -92,4 +148,50 @@ public class TaskManager implements Iterable<Task> {
     public Iterator<Task> iterator() {
         return tasks.values().iterator();
     }
+
+    /**
+     * GsonAdapter reads and writes the TaskManager without using reflection.
+     * Only the next task ID is written, since each task is saved as its own record.
+     */
+    protected static class GsonAdapter extends TypeAdapter<TaskManager> {
+        private static final String JSON_NEXT_TASK_ID = "nextTaskId";
+        private static final String JSON_LEGACY_TASKS = "tasks";
+        private final Task.GsonAdapter taskAdapter = new Task.GsonAdapter();
+
+        @Override
+        public void write(JsonWriter out, TaskManager manager) throws IOException {
+            out.beginObject();
+            out.name(JSON_NEXT_TASK_ID).value(manager.nextTaskId);
+            out.endObject();
+        }
+
+        @Override
+        public TaskManager read(JsonReader in) throws IOException {
+            TaskManager manager = new TaskManager();
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case JSON_NEXT_TASK_ID:
+                        manager.nextTaskId = in.nextLong();
+                        break;
+                    case JSON_LEGACY_TASKS:
+                        manager.legacyTasks = new LinkedHashMap<>();
+                        in.beginObject();
+                        while(in.hasNext()) {
+                            in.nextName(); // the key is the task's ID, which is also inside the task
+                            Task task = taskAdapter.read(in);
+                            manager.legacyTasks.put(task.getId(), task);
+                        }
+                        in.endObject();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return manager;
+        }
+    }
 }
@@ -0,0 +1,275 @@
+package ca.cmpt276.flame.model;
+
+import android.os.SystemClock;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import ca.cmpt276.flame.model.TimeoutManager.TimerState;
+
+/**
+ * A Timeout is a single timer: the number of minutes entered, how fast it runs and
+ * whether it is running, paused or stopped. Timeouts are created and changed through
+ * the TimeoutManager, which keeps the alarm set for whichever finishes first.
+ *
+ * Time is measured with SystemClock.elapsedRealtime(), so changing the device's clock does
+ * not affect the timer. A running timer is stored as an anchor: the time remaining (as the
+ * user sees it) at an elapsed realtime, counting down at the current speed from there. A
+ * speed change starts a new anchor, so the time remaining is always found in O(1) from the
+ * latest one without rounding errors building up. The elapsed realtime restarts when the
+ * device reboots (which also clears the alarm), so a timeout found running after a reboot
+ * is paused with an estimate of the time it had left. A reboot is told apart by the
+ * device's boot count (Android 7.0 and up), or else by the elapsed realtime going back.
+ */
+public class Timeout {
+    protected static final int UNKNOWN_BOOT_COUNT = -1;
+    private static final int MILLIS_IN_MIN = 60000;
+    private static final int DECIMAL_TO_PERCENT = 100;
+    private static final double DEFAULT_SPEED_MODIFIER = 1.0;
+    private final long id;
+    private TimerState timerState = TimerState.STOPPED;
+    private double speedMultiplier = DEFAULT_SPEED_MODIFIER;
+    private int minutesEntered;
+    // while running: the time remaining at anchorElapsedRealtime; otherwise: the time remaining
+    private long anchorMillisRemaining;
+    private long anchorElapsedRealtime;
+    // the wall clock time when the device booted, as of the anchor (used to estimate the time left after a reboot)
+    private long anchorBootTime;
+    // the number of times the device had booted, as of the anchor (used to tell if it has rebooted since)
+    private int anchorBootCount = UNKNOWN_BOOT_COUNT;
+
+    protected Timeout(long id) {
+        this.id = id;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getMinutesEntered() {
+        return minutesEntered;
+    }
+
+    protected void setMinutesEntered(int minutes) {
+        minutesEntered = minutes;
+        reset();
+    }
+
+    public int getSpeedPercentage() {
+        return (int) (speedMultiplier * DECIMAL_TO_PERCENT);
+    }
+
+    protected void setSpeedPercentage(int percent) {
+        if(percent <= 0) {
+            throw new IllegalArgumentException("Timeout expects non-zero, positive speed percentage");
+        }
+
+        setAnchor(getMillisRemaining());
+        speedMultiplier = (double) percent / DECIMAL_TO_PERCENT;
+    }
+
+    protected void start() {
+        switch (getTimerState()) {
+            case RUNNING:
+                return;
+            case STOPPED:
+                reset();
+        }
+
+        setAnchor(anchorMillisRemaining);
+        timerState = TimerState.RUNNING;
+    }
+
+    protected void pause() {
+        anchorMillisRemaining = getMillisRemaining();
+        timerState = TimerState.PAUSED;
+    }
+
+    protected void reset() {
+        speedMultiplier = DEFAULT_SPEED_MODIFIER;
+        anchorMillisRemaining = (long) minutesEntered * MILLIS_IN_MIN;
+        timerState = TimerState.STOPPED;
+    }
+
+    // the alarm may go off a little before the finish time, so the timeout is stopped at zero rather than left running
+    protected void finish() {
+        anchorMillisRemaining = 0;
+        timerState = TimerState.STOPPED;
+    }
+
+    // the timer counts down from millisRemaining, starting now
+    private void setAnchor(long millisRemaining) {
+        anchorMillisRemaining = millisRemaining;
+        anchorElapsedRealtime = SystemClock.elapsedRealtime();
+        anchorBootTime = System.currentTimeMillis() - anchorElapsedRealtime;
+        anchorBootCount = TimeoutManager.getBootCount();
+    }
+
+    // the elapsed realtime when the timer reaches zero, if it is running
+    public long getFinishElapsedRealtime() {
+        return anchorElapsedRealtime + (long) Math.ceil(anchorMillisRemaining / speedMultiplier);
+    }
+
+    // returns true if the timeout was running before a reboot, and so has been paused with the
+    // time it had left according to the wall clock (the only clock that keeps going through a reboot)
+    protected boolean pauseIfRebooted() {
+        if(timerState != TimerState.RUNNING) {
+            return false;
+        }
+
+        // the wall clock cannot be used to tell, since the user or the network may change it at any time
+        int bootCount = TimeoutManager.getBootCount();
+        boolean hasRebooted;
+        if(bootCount != UNKNOWN_BOOT_COUNT && anchorBootCount != UNKNOWN_BOOT_COUNT) {
+            hasRebooted = bootCount != anchorBootCount;
+        } else {
+            hasRebooted = anchorElapsedRealtime > SystemClock.elapsedRealtime();
+        }
+        if(!hasRebooted) {
+            return false;
+        }
+
+        long millisSinceAnchor = Math.max(0, System.currentTimeMillis() - (anchorBootTime + anchorElapsedRealtime));
+        long millisRemaining = anchorMillisRemaining - (long) (millisSinceAnchor * speedMultiplier);
+        anchorMillisRemaining = Math.max(0, Math.min(anchorMillisRemaining, millisRemaining));
+        timerState = TimerState.PAUSED;
+        return true;
+    }
+
+    // returns the number of milliseconds remaining, modified by the speedMultiplier (what the user expects to see)
+    public long getMillisRemaining() {
+        if(timerState != TimerState.RUNNING) {
+            return anchorMillisRemaining;
+        }
+
+        long millisSinceAnchor = SystemClock.elapsedRealtime() - anchorElapsedRealtime;
+        long millisRemaining = anchorMillisRemaining - (long) (millisSinceAnchor * speedMultiplier);
+        return millisRemaining > 0 ? millisRemaining : 0;
+    }
+
+    public TimerState getTimerState() {
+        if(timerState == TimerState.RUNNING && getMillisRemaining() == 0) {
+            timerState = TimerState.STOPPED;
+            anchorMillisRemaining = 0;
+            TimeoutManager.getInstance().onTimeoutExpired(this);
+        }
+
+        return timerState;
+    }
+
+    /**
+     * GsonAdapter reads and writes a Timeout without using reflection. The anchor's
+     * elapsed realtime is only written while the timeout is running. Older versions of
+     * the app saved a wall clock finish time, which is converted to an anchor.
+     */
+    protected static class GsonAdapter extends TypeAdapter<Timeout> {
+        private static final String JSON_ID = "id";
+        private static final String JSON_TIMER_STATE = "timerState";
+        private static final String JSON_SPEED_MULTIPLIER = "speedMultiplier";
+        private static final String JSON_MINUTES_ENTERED = "minutesEntered";
+        private static final String JSON_ANCHOR_MILLIS_REMAINING = "anchorMillisRemaining";
+        private static final String JSON_ANCHOR_ELAPSED_REALTIME = "anchorElapsedRealtime";
+        private static final String JSON_ANCHOR_BOOT_TIME = "anchorBootTime";
+        private static final String JSON_ANCHOR_BOOT_COUNT = "anchorBootCount";
+        private static final String JSON_LEGACY_TIMER_FINISH_TIME = "timerFinishTime";
+        private static final String JSON_LEGACY_TIME_LEFT_MILLIS = "timeLeftMillis";
+
+        @Override
+        public void write(JsonWriter out, Timeout timeout) throws IOException {
+            out.beginObject();
+            out.name(JSON_ID).value(timeout.id);
+            out.name(JSON_TIMER_STATE).value(timeout.timerState.name());
+            out.name(JSON_SPEED_MULTIPLIER).value(timeout.speedMultiplier);
+            out.name(JSON_MINUTES_ENTERED).value(timeout.minutesEntered);
+            out.name(JSON_ANCHOR_MILLIS_REMAINING).value(timeout.anchorMillisRemaining);
+            if(timeout.timerState == TimerState.RUNNING) {
+                out.name(JSON_ANCHOR_ELAPSED_REALTIME).value(timeout.anchorElapsedRealtime);
+                out.name(JSON_ANCHOR_BOOT_TIME).value(timeout.anchorBootTime);
+                out.name(JSON_ANCHOR_BOOT_COUNT).value(timeout.anchorBootCount);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Timeout read(JsonReader in) throws IOException {
+            long id = TimeoutManager.MAIN_TIMEOUT_ID;
+            TimerState timerState = TimerState.STOPPED;
+            double speedMultiplier = DEFAULT_SPEED_MODIFIER;
+            int minutesEntered = 0;
+            Long anchorMillisRemaining = null;
+            long anchorElapsedRealtime = 0;
+            long anchorBootTime = 0;
+            int anchorBootCount = UNKNOWN_BOOT_COUNT;
+            long legacyTimerFinishTime = 0;
+            long legacyTimeLeftMillis = 0;
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case JSON_ID:
+                        id = in.nextLong();
+                        break;
+                    case JSON_TIMER_STATE:
+                        timerState = TimerState.valueOf(in.nextString());
+                        break;
+                    case JSON_SPEED_MULTIPLIER:
+                        speedMultiplier = in.nextDouble();
+                        break;
+                    case JSON_MINUTES_ENTERED:
+                        minutesEntered = in.nextInt();
+                        break;
+                    case JSON_ANCHOR_MILLIS_REMAINING:
+                        anchorMillisRemaining = in.nextLong();
+                        break;
+                    case JSON_ANCHOR_ELAPSED_REALTIME:
+                        anchorElapsedRealtime = in.nextLong();
+                        break;
+                    case JSON_ANCHOR_BOOT_TIME:
+                        anchorBootTime = in.nextLong();
+                        break;
+                    case JSON_ANCHOR_BOOT_COUNT:
+                        anchorBootCount = in.nextInt();
+                        break;
+                    case JSON_LEGACY_TIMER_FINISH_TIME:
+                        legacyTimerFinishTime = in.nextLong();
+                        break;
+                    case JSON_LEGACY_TIME_LEFT_MILLIS:
+                        legacyTimeLeftMillis = in.nextLong();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            Timeout timeout = new Timeout(id);
+            timeout.timerState = timerState;
+            timeout.speedMultiplier = speedMultiplier;
+            timeout.minutesEntered = minutesEntered;
+
+            if(anchorMillisRemaining != null) {
+                timeout.anchorMillisRemaining = anchorMillisRemaining;
+                timeout.anchorElapsedRealtime = anchorElapsedRealtime;
+                timeout.anchorBootTime = anchorBootTime;
+                timeout.anchorBootCount = anchorBootCount;
+            } else {
+                migrateLegacyTimes(timeout, legacyTimerFinishTime, legacyTimeLeftMillis);
+            }
+
+            return timeout;
+        }
+
+        // the legacy times were in real time rather than as the user sees it, and the alarm was set on the wall clock
+        private static void migrateLegacyTimes(Timeout timeout, long timerFinishTime, long timeLeftMillis) {
+            if(timeout.timerState == TimerState.RUNNING) {
+                long realMillisRemaining = Math.max(0, timerFinishTime - System.currentTimeMillis());
+                timeout.setAnchor((long) (realMillisRemaining * timeout.speedMultiplier));
+            } else {
+                timeout.anchorMillisRemaining = (long) (timeLeftMillis * timeout.speedMultiplier);
+            }
+        }
+    }
+}
@@ -3,148 +3,432 @@ package ca.cmpt276.flame.model;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.provider.Settings;
 
 import androidx.core.app.AlarmManagerCompat;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
 import static ca.cmpt276.flame.TimerAlarmReceiver.cancelNotifications;
 import static ca.cmpt276.flame.TimerAlarmReceiver.getNotificationPendingIntent;
 
 /**
- * TimeoutManager is a singleton class that manages the current state of the timer:
- * - the number of minutes entered by the user
- * - the number of milliseconds remaining
- * - whether the timer is running, paused or stopped
+ * TimeoutManager is a singleton class that manages the timeouts (see Timeout). There is
+ * always a main timeout, which is the one shown by the timeout screens (the methods that
+ * do not take a Timeout act on it), and more can be added to run at the same time.
+ *
+ * The finish times of the running timeouts are kept in a min-heap, and only the earliest
+ * one holds the system alarm (set with ELAPSED_REALTIME_WAKEUP). When it goes off, every
+ * timeout finishing within ALARM_TOLERANCE_MILLIS is done with and the alarm moves on to
+ * the next finish time, so the device wakes at most once per distinct finish time. The
+ * alarm is only moved when the earliest finish time changes by more than the tolerance.
+ * All of the timeouts are persisted together in one record. Each change to a timeout's
+ * state is sent as a ModelEvent to the listeners added with addListener(), so that the
+ * countdown notification (which the user can turn off) only changes when the state does.
  */
 public class TimeoutManager {
-    /** TimerState represents the current state of the timer */
+    /** TimerState represents the current state of a timer */
     public enum TimerState {
         STOPPED,
         RUNNING,
         PAUSED
     }
 
+    protected static final long MAIN_TIMEOUT_ID = 1;
     private static final String SHARED_PREFS_KEY = "SHARED_PREFS_TIMEOUT_MANAGER";
-    private static final int MILLIS_IN_MIN = 60000;
-    private static final int DECIMAL_TO_PERCENT = 100;
-    private static final double DEFAULT_SPEED_MODIFIER = 1.0;
+    private static final long ALARM_TOLERANCE_MILLIS = 100;
+    private static final long NO_ALARM = -1;
     private static TimeoutManager timeoutManager;
-    private TimerState timerState = TimerState.STOPPED;
-    private double speedMultiplier = DEFAULT_SPEED_MODIFIER;
-    private int minutesEntered;
-    private long timerFinishTime;
-    private long timeLeftMillis;
+    // the device's boot count when the process started (it cannot change while the process is running)
+    private static int bootCount = Timeout.UNKNOWN_BOOT_COUNT;
+    private final Map<Long, Timeout> timeouts = new LinkedHashMap<>();
+    private final PriorityQueue<Deadline> deadlineQueue = new PriorityQueue<>(
+            (first, second) -> Long.compare(first.elapsedRealtime, second.elapsedRealtime));
+    // the deadline in the queue for each running timeout, by ID
+    private final Map<Long, Deadline> deadlines = new HashMap<>();
+    private final ModelEventDispatcher eventDispatcher = new ModelEventDispatcher();
+    private long nextTimeoutId = MAIN_TIMEOUT_ID + 1;
+    private long alarmElapsedRealtime = NO_ALARM;
+    private boolean isCountdownNotificationEnabled = true;
 
-    public static TimeoutManager getInstance() {
+    /**
+     * Deadline is the finish time of a running timeout, as it was when it was put in the queue
+     */
+    private static class Deadline {
+        private final long elapsedRealtime;
+        private final Timeout timeout;
+
+        private Deadline(Timeout timeout) {
+            this.elapsedRealtime = timeout.getFinishElapsedRealtime();
+            this.timeout = timeout;
+        }
+    }
+
+    // Singleton
+
+    // must be called when the app's process starts, after PrefsManager.init (see PracticalParentApplication)
+    public static void init(Context context) {
         if(timeoutManager == null) {
+            bootCount = readBootCount(context);
             timeoutManager = (TimeoutManager) PrefsManager.restoreObj(SHARED_PREFS_KEY, TimeoutManager.class);
+            timeoutManager.restoreDeadlines(context);
+        }
+    }
+
+    public static TimeoutManager getInstance() {
+        if(timeoutManager == null) {
+            throw new IllegalStateException("TimeoutManager requires initialization before use");
         }
         return timeoutManager;
     }
 
+    private static int readBootCount(Context context) {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return Timeout.UNKNOWN_BOOT_COUNT;
+        }
+
+        return Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT,
+                Timeout.UNKNOWN_BOOT_COUNT);
+    }
+
+    protected static int getBootCount() {
+        return bootCount;
+    }
+
+    // Normal class
+
     private TimeoutManager() {
+        // singleton: prevent other classes from creating new ones
+    }
+
+    private void restoreDeadlines(Context context) {
+        boolean hasPaused = false;
+
+        for(Timeout timeout : timeouts.values()) {
+            if(timeout.pauseIfRebooted()) {
+                hasPaused = true;
+            } else if(timeout.getTimerState() == TimerState.RUNNING) {
+                addDeadline(timeout);
+            }
+        }
+
+        if(hasPaused) {
+            // a reboot clears the alarm, but in case it is still set (e.g. if the reboot was misjudged) it is
+            // cancelled, so that it cannot go off for a paused timeout, and then set again for any still running
+            getAlarmManager(context).cancel(getNotificationPendingIntent(context));
+            alarmElapsedRealtime = NO_ALARM;
+            updateAlarm(context);
+            persistToSharedPrefs();
+        }
+    }
+
+    public Timeout getMainTimeout() {
+        return timeouts.get(MAIN_TIMEOUT_ID);
+    }
+
+    // returns null if there is no timeout with the ID
+    public Timeout getTimeout(long timeoutId) {
+        return timeouts.get(timeoutId);
     }
 
+    // the main timeout comes first, followed by the others in the order they were added
+    public List<Timeout> getTimeouts() {
+        return new ArrayList<>(timeouts.values());
+    }
+
+    // adds a timeout for the number of minutes and starts it
+    public Timeout addTimeout(Context context, int minutes) {
+        Timeout timeout = new Timeout(nextTimeoutId++);
+        timeouts.put(timeout.getId(), timeout);
+        timeout.setMinutesEntered(minutes);
+        start(context, timeout);
+        return timeout;
+    }
+
+    public void removeTimeout(Context context, Timeout timeout) {
+        if(timeout == null || timeout.getId() == MAIN_TIMEOUT_ID || timeouts.get(timeout.getId()) != timeout) {
+            throw new IllegalArgumentException("TimeoutManager expects an added timeout other than the main one");
+        }
+
+        timeouts.remove(timeout.getId());
+        removeDeadline(timeout);
+        updateAlarm(context);
+        persistToSharedPrefs();
+        eventDispatcher.dispatch(ModelEvent.forTimeout(ModelEvent.Type.TIMEOUT_REMOVED, timeout.getId()));
+    }
+
+    public boolean isCountdownNotificationEnabled() {
+        return isCountdownNotificationEnabled;
+    }
+
+    // whether the main timeout's countdown is shown in a notification while it is running or paused
+    public void setCountdownNotificationEnabled(boolean isEnabled) {
+        isCountdownNotificationEnabled = isEnabled;
+        persistToSharedPrefs();
+        eventDispatcher.dispatch(ModelEvent.forTimeout(ModelEvent.Type.TIMEOUT_CHANGED, MAIN_TIMEOUT_ID));
+    }
+
+    public void addListener(ModelEventListener listener) {
+        eventDispatcher.addListener(listener);
+    }
+
+    public void removeListener(ModelEventListener listener) {
+        eventDispatcher.removeListener(listener);
+    }
+
+    // Main timeout
+
     public int getMinutesEntered() {
-        return minutesEntered;
+        return getMainTimeout().getMinutesEntered();
     }
 
     public void setMinutesEntered(Context context, int minutes) {
-        minutesEntered = minutes;
-        reset(context);
+        setMinutesEntered(context, getMainTimeout(), minutes);
     }
 
     public int getSpeedPercentage() {
-        return (int) (speedMultiplier * DECIMAL_TO_PERCENT);
+        return getMainTimeout().getSpeedPercentage();
     }
 
     public void setSpeedPercentage(Context context, int percent) {
-        if(percent <= 0) {
-            throw new IllegalArgumentException("TimeoutManager expects non-zero, positive speed percentage");
-        }
+        setSpeedPercentage(context, getMainTimeout(), percent);
+    }
+
+    public void start(Context context) {
+        start(context, getMainTimeout());
+    }
 
-        double newSpeedMultiplier = (double) percent / DECIMAL_TO_PERCENT;
+    public void pause(Context context) {
+        pause(context, getMainTimeout());
+    }
 
-        timeLeftMillis = (long) (getMillisRemainingReal() * speedMultiplier / newSpeedMultiplier);
-        timerFinishTime = System.currentTimeMillis() + timeLeftMillis;
-        speedMultiplier = newSpeedMultiplier;
+    public void reset(Context context) {
+        reset(context, getMainTimeout());
+    }
 
-        if(getTimerState() == TimerState.RUNNING) {
-            cancelAlarm(context);
-            setAlarm(context);
+    // returns the number of milliseconds remaining, modified by the speedMultiplier (what the user expects to see)
+    public long getMillisRemaining() {
+        return getMainTimeout().getMillisRemaining();
+    }
+
+    public TimerState getTimerState() {
+        return getMainTimeout().getTimerState();
+    }
+
+    // cancels the main timeout's alarm (if it has one) and the notification
+    public void cancelAlarm(Context context) {
+        removeDeadline(getMainTimeout());
+        updateAlarm(context);
+        cancelNotifications(context);
+        persistToSharedPrefs();
+    }
+
+    // Any timeout
+
+    public void setMinutesEntered(Context context, Timeout timeout, int minutes) {
+        timeout.setMinutesEntered(minutes);
+        onTimeoutStopped(context, timeout);
+    }
+
+    public void setSpeedPercentage(Context context, Timeout timeout, int percent) {
+        boolean isRunning = timeout.getTimerState() == TimerState.RUNNING;
+        timeout.setSpeedPercentage(percent);
+
+        if(isRunning) {
+            addDeadline(timeout);
+            updateAlarm(context);
         }
 
         persistToSharedPrefs();
+        dispatchChanged(timeout);
     }
 
-    public void start(Context context) {
-        switch (getTimerState()) {
-            case RUNNING:
-                return;
-            case STOPPED:
-                reset(context);
+    public void start(Context context, Timeout timeout) {
+        if(timeout.getTimerState() == TimerState.RUNNING) {
+            return;
         }
 
-        timerFinishTime = System.currentTimeMillis() + timeLeftMillis;
-        timerState = TimerState.RUNNING;
-        setAlarm(context);
+        timeout.start();
+        cancelNotifications(context);
+        addDeadline(timeout);
+        updateAlarm(context);
         persistToSharedPrefs();
+        dispatchChanged(timeout);
     }
 
-    public void pause(Context context) {
-        timeLeftMillis = getMillisRemainingReal();
-        timerState = TimerState.PAUSED;
-        cancelAlarm(context);
+    public void pause(Context context, Timeout timeout) {
+        timeout.pause();
+        onTimeoutStopped(context, timeout);
+    }
+
+    public void reset(Context context, Timeout timeout) {
+        timeout.reset();
+        onTimeoutStopped(context, timeout);
+    }
+
+    private void onTimeoutStopped(Context context, Timeout timeout) {
+        removeDeadline(timeout);
+        updateAlarm(context);
+        cancelNotifications(context);
         persistToSharedPrefs();
+        dispatchChanged(timeout);
     }
 
-    public void reset(Context context) {
-        speedMultiplier = DEFAULT_SPEED_MODIFIER;
-        timeLeftMillis = (long) ((minutesEntered * MILLIS_IN_MIN) / speedMultiplier);
-        timerState = TimerState.STOPPED;
-        cancelAlarm(context);
+    // should only be called by the TimerAlarmReceiver, when the alarm goes off
+    public void onAlarm(Context context) {
+        alarmElapsedRealtime = NO_ALARM;
+
+        List<Timeout> finishedTimeouts = new ArrayList<>();
+        long dueElapsedRealtime = SystemClock.elapsedRealtime() + ALARM_TOLERANCE_MILLIS;
+        while(!deadlineQueue.isEmpty() && deadlineQueue.peek().elapsedRealtime <= dueElapsedRealtime) {
+            Deadline deadline = deadlineQueue.poll();
+            Timeout timeout = deadline.timeout;
+            if(deadlines.get(timeout.getId()) != deadline) {
+                // left over from an earlier run of the timeout, which must not end the current one
+                continue;
+            }
+
+            deadlines.remove(timeout.getId());
+            timeout.finish();
+            finishedTimeouts.add(timeout);
+        }
+
+        updateAlarm(context);
         persistToSharedPrefs();
+
+        for(Timeout timeout : finishedTimeouts) {
+            dispatchChanged(timeout);
+        }
     }
 
-    private void setAlarm(Context context) {
-        AlarmManager alarmManager = getAlarmManager(context);
-        PendingIntent pendingIntent = getNotificationPendingIntent(context);
-        AlarmManagerCompat.setExactAndAllowWhileIdle(alarmManager, AlarmManager.RTC_WAKEUP, timerFinishTime, pendingIntent);
+    private void dispatchChanged(Timeout timeout) {
+        eventDispatcher.dispatch(ModelEvent.forTimeout(ModelEvent.Type.TIMEOUT_CHANGED, timeout.getId()));
     }
 
-    public void cancelAlarm(Context context) {
-        AlarmManager alarmManager = getAlarmManager(context);
-        alarmManager.cancel(getNotificationPendingIntent(context));
-        cancelNotifications(context);
+    // a timeout only ever has one deadline, so any earlier one (e.g. from a run that has since ended) is dropped
+    private void addDeadline(Timeout timeout) {
+        removeDeadline(timeout);
+        Deadline deadline = new Deadline(timeout);
+        deadlines.put(timeout.getId(), deadline);
+        deadlineQueue.add(deadline);
     }
 
-    private AlarmManager getAlarmManager(Context context) {
-        return (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    // called by a running timeout when it finds it has reached zero, so the finished run's deadline is dropped
+    protected void onTimeoutExpired(Timeout timeout) {
+        removeDeadline(timeout);
     }
 
-    // returns the actual number of milliseconds remaining in real-world time
-    private long getMillisRemainingReal() {
-        if(timerState == TimerState.RUNNING) {
-            long offset = timerFinishTime - System.currentTimeMillis();
-            return offset > 0 ? offset : 0;
-        } else {
-            return timeLeftMillis;
+    private void removeDeadline(Timeout timeout) {
+        Deadline deadline = deadlines.remove(timeout.getId());
+        if(deadline != null) {
+            deadlineQueue.remove(deadline);
         }
     }
 
-    // returns the number of milliseconds remaining, modified by the speedMultiplier (what the user expects to see)
-    public long getMillisRemaining() {
-        return (long) (getMillisRemainingReal() * speedMultiplier);
-    }
+    // makes the alarm go off at the earliest deadline; setting it again replaces the old one,
+    // but it is left alone if it would hardly move
+    private void updateAlarm(Context context) {
+        Deadline earliestDeadline = deadlineQueue.peek();
+        AlarmManager alarmManager = getAlarmManager(context);
+        PendingIntent pendingIntent = getNotificationPendingIntent(context);
 
-    public TimerState getTimerState() {
-        if(timerState == TimerState.RUNNING && getMillisRemainingReal() == 0) {
-            timerState = TimerState.STOPPED;
+        if(earliestDeadline == null) {
+            if(alarmElapsedRealtime != NO_ALARM) {
+                alarmManager.cancel(pendingIntent);
+                alarmElapsedRealtime = NO_ALARM;
+            }
+            return;
         }
 
-        return timerState;
+        if(alarmElapsedRealtime != NO_ALARM
+                && Math.abs(earliestDeadline.elapsedRealtime - alarmElapsedRealtime) <= ALARM_TOLERANCE_MILLIS) {
+            return;
+        }
+
+        AlarmManagerCompat.setExactAndAllowWhileIdle(alarmManager, AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                earliestDeadline.elapsedRealtime, pendingIntent);
+        alarmElapsedRealtime = earliestDeadline.elapsedRealtime;
+    }
+
+    private AlarmManager getAlarmManager(Context context) {
+        return (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
     }
 
     private void persistToSharedPrefs() {
         PrefsManager.persistObj(SHARED_PREFS_KEY, this);
     }
+
+    /**
+     * GsonAdapter reads and writes the TimeoutManager without using reflection.
+     * Older versions of the app had a single timer, saved on its own; it becomes the main timeout.
+     */
+    protected static class GsonAdapter extends TypeAdapter<TimeoutManager> {
+        private static final String JSON_TIMEOUTS = "timeouts";
+        private static final String JSON_NEXT_TIMEOUT_ID = "nextTimeoutId";
+        private static final String JSON_ALARM_ELAPSED_REALTIME = "alarmElapsedRealtime";
+        private static final String JSON_IS_COUNTDOWN_NOTIFICATION_ENABLED = "isCountdownNotificationEnabled";
+        private final Timeout.GsonAdapter timeoutAdapter = new Timeout.GsonAdapter();
+
+        @Override
+        public void write(JsonWriter out, TimeoutManager manager) throws IOException {
+            out.beginObject();
+            out.name(JSON_TIMEOUTS).beginArray();
+            for(Timeout timeout : manager.timeouts.values()) {
+                timeoutAdapter.write(out, timeout);
+            }
+            out.endArray();
+            out.name(JSON_NEXT_TIMEOUT_ID).value(manager.nextTimeoutId);
+            out.name(JSON_ALARM_ELAPSED_REALTIME).value(manager.alarmElapsedRealtime);
+            out.name(JSON_IS_COUNTDOWN_NOTIFICATION_ENABLED).value(manager.isCountdownNotificationEnabled);
+            out.endObject();
+        }
+
+        @Override
+        public TimeoutManager read(JsonReader in) throws IOException {
+            TimeoutManager manager = new TimeoutManager();
+            JsonObject json = JsonParser.parseReader(in).getAsJsonObject();
+
+            if(!json.has(JSON_TIMEOUTS)) {
+                // the legacy timer's alarm is still set, but it is not known here, so it will be set again
+                Timeout mainTimeout = timeoutAdapter.fromJsonTree(json);
+                manager.timeouts.put(MAIN_TIMEOUT_ID, mainTimeout);
+                return manager;
+            }
+
+            for(JsonElement timeoutJson : json.getAsJsonArray(JSON_TIMEOUTS)) {
+                Timeout timeout = timeoutAdapter.fromJsonTree(timeoutJson);
+                manager.timeouts.put(timeout.getId(), timeout);
+            }
+            if(json.has(JSON_NEXT_TIMEOUT_ID)) {
+                manager.nextTimeoutId = json.get(JSON_NEXT_TIMEOUT_ID).getAsLong();
+            }
+            if(json.has(JSON_ALARM_ELAPSED_REALTIME)) {
+                manager.alarmElapsedRealtime = json.get(JSON_ALARM_ELAPSED_REALTIME).getAsLong();
+            }
+            if(json.has(JSON_IS_COUNTDOWN_NOTIFICATION_ENABLED)) {
+                JsonElement isEnabledJson = json.get(JSON_IS_COUNTDOWN_NOTIFICATION_ENABLED);
+                manager.isCountdownNotificationEnabled = isEnabledJson.getAsBoolean();
+            }
+            if(!manager.timeouts.containsKey(MAIN_TIMEOUT_ID)) {
+                manager.timeouts.put(MAIN_TIMEOUT_ID, new Timeout(MAIN_TIMEOUT_ID));
+            }
+
+            return manager;
+        }
+    }
 }
@@ -0,0 +1,54 @@
+package ca.cmpt276.flame.model;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ChildGsonAdapterTest checks that a child is written and read back unchanged, including
+ * a child whose image, saved by an older version of the app, has yet to be migrated.
+ */
+public class ChildGsonAdapterTest {
+    private static final String LEGACY_CHILD_JSON = "{\"id\":3,\"name\":\"Alice\",\"hasImage\":true}";
+    private final Child.GsonAdapter adapter = new Child.GsonAdapter();
+
+    @Test
+    public void legacyImageSurvivesWriteAndRead() throws IOException {
+        Child child = adapter.fromJson(LEGACY_CHILD_JSON);
+        assertTrue(child.hasLegacyImage());
+
+        Child restored = adapter.fromJson(adapter.toJson(child));
+
+        assertEquals(child.getId(), restored.getId());
+        assertEquals(child.getName(), restored.getName());
+        assertTrue(restored.hasLegacyImage());
+        assertFalse(restored.hasImage());
+    }
+
+    @Test
+    public void migratedImageDropsLegacyFlag() throws IOException {
+        Child child = adapter.fromJson(LEGACY_CHILD_JSON);
+        child.setImageHash("abc123");
+
+        Child restored = adapter.fromJson(adapter.toJson(child));
+
+        assertEquals("abc123", restored.getImageHash());
+        assertFalse(restored.hasLegacyImage());
+    }
+
+    @Test
+    public void childWithoutImageRoundTrips() throws IOException {
+        Child child = adapter.fromJson("{\"id\":4,\"name\":\"Bob\"}");
+
+        Child restored = adapter.fromJson(adapter.toJson(child));
+
+        assertEquals(4, restored.getId());
+        assertNull(restored.getImageHash());
+        assertFalse(restored.hasLegacyImage());
+    }
+}
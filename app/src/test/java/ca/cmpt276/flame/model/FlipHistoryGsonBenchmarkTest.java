@@ -0,0 +1,102 @@
+package ca.cmpt276.flame.model;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * FlipHistoryGsonBenchmarkTest compares writing and reading a 50k-entry flip history the
+ * old way (a new, reflection-based Gson for every call, as PrefsManager used to do) with
+ * the shared Gson and its hand-written adapters. The shared Gson must always round trip;
+ * the comparison depends on the machine, so it only runs when benchmarks are asked for
+ * (./gradlew test -PrunBenchmarks).
+ */
+public class FlipHistoryGsonBenchmarkTest {
+    protected static final String RUN_BENCHMARKS_PROPERTY = "runBenchmarks";
+    private static final int NUM_ENTRIES = 50000;
+    private static final int NUM_CHILDREN = 5;
+    private static final int NUM_WARMUP_RUNS = 3;
+    private static final int NUM_TIMED_RUNS = 10;
+    private static final long FIRST_DATE_MILLIS = 1600000000000L;
+    private static final long MILLIS_BETWEEN_FLIPS = 60000;
+    private static final Type HISTORY_TYPE = new TypeToken<List<FlipHistoryEntry>>() { }.getType();
+
+    @Test
+    public void sharedGsonRoundTripsHistory() {
+        List<FlipHistoryEntry> history = makeHistory();
+        Gson gson = PrefsManager.getGson();
+
+        List<FlipHistoryEntry> restored = gson.fromJson(gson.toJson(history, HISTORY_TYPE), HISTORY_TYPE);
+
+        assertEquals(history.size(), restored.size());
+        for(int i = 0; i < history.size(); i++) {
+            FlipHistoryEntry entry = history.get(i);
+            FlipHistoryEntry restoredEntry = restored.get(i);
+            assertEquals(entry.getChildId(), restoredEntry.getChildId());
+            assertEquals(entry.getResult(), restoredEntry.getResult());
+            assertEquals(entry.wasWon(), restoredEntry.wasWon());
+            assertEquals(entry.getDateMillis(), restoredEntry.getDateMillis());
+        }
+    }
+
+    @Test
+    public void sharedGsonIsFasterThanReflection() {
+        assumeTrue(Boolean.getBoolean(RUN_BENCHMARKS_PROPERTY));
+        List<FlipHistoryEntry> history = makeHistory();
+
+        long reflectionNanos = timeRoundTrips(history, Gson::new);
+        long sharedNanos = timeRoundTrips(history, PrefsManager::getGson);
+
+        assertTrue("shared adapters took " + sharedNanos + " ns, reflection " + reflectionNanos + " ns",
+                sharedNanos < reflectionNanos);
+    }
+
+    // returns the average time of a write and read of the history, after warming up
+    private static long timeRoundTrips(List<FlipHistoryEntry> history, GsonSupplier gsonSupplier) {
+        for(int i = 0; i < NUM_WARMUP_RUNS; i++) {
+            roundTrip(history, gsonSupplier);
+        }
+
+        long startNanos = System.nanoTime();
+        for(int i = 0; i < NUM_TIMED_RUNS; i++) {
+            roundTrip(history, gsonSupplier);
+        }
+        return (System.nanoTime() - startNanos) / NUM_TIMED_RUNS;
+    }
+
+    // the Gson is fetched for each call, as PrefsManager does
+    private static void roundTrip(List<FlipHistoryEntry> history, GsonSupplier gsonSupplier) {
+        String json = gsonSupplier.get().toJson(history, HISTORY_TYPE);
+        List<FlipHistoryEntry> restored = gsonSupplier.get().fromJson(json, HISTORY_TYPE);
+        assertEquals(history.size(), restored.size());
+    }
+
+    private static List<FlipHistoryEntry> makeHistory() {
+        List<FlipHistoryEntry> history = new ArrayList<>(NUM_ENTRIES);
+        FlipManager.CoinSide[] sides = FlipManager.CoinSide.values();
+
+        for(int i = 0; i < NUM_ENTRIES; i++) {
+            long childId = 1 + i % NUM_CHILDREN;
+            long dateMillis = FIRST_DATE_MILLIS + i * MILLIS_BETWEEN_FLIPS;
+            history.add(new FlipHistoryEntry(childId, sides[i % sides.length], i % 2 == 0, dateMillis));
+        }
+
+        return history;
+    }
+
+    /**
+     * GsonSupplier gives the Gson to use for one call
+     */
+    private interface GsonSupplier {
+        Gson get();
+    }
+}
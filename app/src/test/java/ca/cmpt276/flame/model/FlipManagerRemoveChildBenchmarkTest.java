@@ -0,0 +1,263 @@
+package ca.cmpt276.flame.model;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * FlipManagerRemoveChildBenchmarkTest deletes a child who made half of the flips in a
+ * 100k-entry history, and checks that their flips are gone from the history, the
+ * statistics and the FlipHistoryStore. Deleting a second child compacts the history,
+ * which must not make open FlipHistoryCursors skip or repeat entries.
+ * The comparison with the old way (removing the entries one at a time from an ArrayList)
+ * depends on the machine, so it only runs when benchmarks are asked for
+ * (./gradlew test -PrunBenchmarks).
+ */
+public class FlipManagerRemoveChildBenchmarkTest {
+    private static final int NUM_ENTRIES = 100000;
+    private static final long FREQUENT_CHILD_ID = 1;
+    private static final int NUM_OTHER_CHILDREN = 4;
+    private static final long FIRST_DATE_MILLIS = 1600000000000L;
+    private static final long MILLIS_BETWEEN_FLIPS = 60000;
+    // the other flips alternate between these two children
+    private static final long SECOND_CHILD_ID = 3;
+    private static final long THIRD_CHILD_ID = 5;
+    private static final long WRITE_TIMEOUT_SECS = 10;
+
+    @Test
+    public void removeFrequentFlipper() throws InterruptedException {
+        List<FlipHistoryEntry> history = makeHistory();
+        int numChildEntries = countEntries(history, FREQUENT_CHILD_ID);
+        MemoryFlipHistoryStore store = new MemoryFlipHistoryStore(history);
+        FlipManager flipManager = restoreFlipManager(store);
+
+        flipManager.removeChildFromHistory(FREQUENT_CHILD_ID);
+        PrefsManager.flush();
+
+        int numLeft = 0;
+        for(FlipHistoryEntry entry : flipManager) {
+            assertTrue(entry.getChildId() != FREQUENT_CHILD_ID);
+            numLeft++;
+        }
+        assertEquals(NUM_ENTRIES - numChildEntries, numLeft);
+        assertEquals(numLeft, flipManager.getStatistics().getNumFlips());
+        assertEquals(0, flipManager.getStatistics().getNumFlips(FREQUENT_CHILD_ID));
+        assertFalse(flipManager.getHistoryCursor(FREQUENT_CHILD_ID, FlipHistoryCursor.DEFAULT_PAGE_SIZE).hasNextPage());
+
+        assertTrue(store.removed.await(WRITE_TIMEOUT_SECS, TimeUnit.SECONDS));
+        assertEquals(FREQUENT_CHILD_ID, store.removedChildId);
+        assertEquals(numChildEntries, store.numEntriesRemoved);
+    }
+
+    // the second removal leaves more tombstones than live entries, so the history is compacted under the cursors
+    @Test
+    public void cursorsSurviveCompaction() {
+        List<FlipHistoryEntry> history = makeHistory();
+        FlipManager flipManager = restoreFlipManager(new MemoryFlipHistoryStore(history));
+        FlipHistoryCursor allCursor = flipManager.getHistoryCursor(FlipHistoryCursor.DEFAULT_PAGE_SIZE);
+        FlipHistoryCursor childCursor = flipManager.getHistoryCursor(THIRD_CHILD_ID,
+                FlipHistoryCursor.DEFAULT_PAGE_SIZE);
+        List<FlipHistoryEntry> allPaged = new ArrayList<>(allCursor.nextPage());
+        List<FlipHistoryEntry> childPaged = new ArrayList<>(childCursor.nextPage());
+
+        int generation = flipManager.getHistoryGeneration();
+        flipManager.removeChildFromHistory(FREQUENT_CHILD_ID);
+        flipManager.removeChildFromHistory(SECOND_CHILD_ID);
+        assertNotEquals(generation, flipManager.getHistoryGeneration());
+
+        while(allCursor.hasNextPage()) {
+            allPaged.addAll(allCursor.nextPage());
+        }
+        while(childCursor.hasNextPage()) {
+            childPaged.addAll(childCursor.nextPage());
+        }
+
+        // the first page was read before the removals, so it still has the removed children's entries
+        List<FlipHistoryEntry> allExpected = new ArrayList<>();
+        List<FlipHistoryEntry> childExpected = new ArrayList<>();
+        for(int i = history.size() - 1; i >= 0; i--) {
+            FlipHistoryEntry entry = history.get(i);
+            boolean isOnFirstPage = i >= history.size() - FlipHistoryCursor.DEFAULT_PAGE_SIZE;
+            if(isOnFirstPage || entry.getChildId() == THIRD_CHILD_ID) {
+                allExpected.add(entry);
+            }
+            if(entry.getChildId() == THIRD_CHILD_ID) {
+                childExpected.add(entry);
+            }
+        }
+        assertEquals(allExpected, allPaged);
+        assertEquals(childExpected, childPaged);
+    }
+
+    @Test
+    public void fasterThanOldRemoval() {
+        assumeTrue(Boolean.getBoolean(FlipHistoryGsonBenchmarkTest.RUN_BENCHMARKS_PROPERTY));
+        List<FlipHistoryEntry> history = makeHistory();
+        FlipManager flipManager = restoreFlipManager(new MemoryFlipHistoryStore(history));
+
+        long startNanos = System.nanoTime();
+        flipManager.removeChildFromHistory(FREQUENT_CHILD_ID);
+        long removeNanos = System.nanoTime() - startNanos;
+
+        long oldRemoveNanos = timeOldRemoval(history, FREQUENT_CHILD_ID);
+        assertTrue("FlipManager took " + removeNanos + " ns, removing one at a time " + oldRemoveNanos + " ns",
+                removeNanos < oldRemoveNanos);
+    }
+
+    // FlipManager is a singleton, so drop the one an earlier test restored
+    private static FlipManager restoreFlipManager(MemoryFlipHistoryStore store) {
+        try {
+            Field instance = FlipManager.class.getDeclaredField("flipManager");
+            instance.setAccessible(true);
+            instance.set(null, null);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException("FlipManagerRemoveChildBenchmarkTest requires a FlipManager singleton", e);
+        }
+
+        PrefsManager.init(makeSharedPrefs(), new MemoryStorageBackend(store));
+        return FlipManager.getInstance();
+    }
+
+    // how FlipManager used to remove a child's flips, shifting the rest of the list down for each one
+    private static long timeOldRemoval(List<FlipHistoryEntry> history, long childId) {
+        List<FlipHistoryEntry> oldHistory = new ArrayList<>(history);
+
+        long startNanos = System.nanoTime();
+        for(int i = 0; i < oldHistory.size(); i++) {
+            if(oldHistory.get(i).getChildId() == childId) {
+                oldHistory.remove(i);
+                i--;
+            }
+        }
+        long removeNanos = System.nanoTime() - startNanos;
+
+        assertEquals(history.size() - countEntries(history, childId), oldHistory.size());
+        return removeNanos;
+    }
+
+    // every other flip is made by the frequent flipper
+    private static List<FlipHistoryEntry> makeHistory() {
+        List<FlipHistoryEntry> history = new ArrayList<>(NUM_ENTRIES);
+        FlipManager.CoinSide[] sides = FlipManager.CoinSide.values();
+
+        for(int i = 0; i < NUM_ENTRIES; i++) {
+            long childId = i % 2 == 0 ? FREQUENT_CHILD_ID : FREQUENT_CHILD_ID + 1 + i % NUM_OTHER_CHILDREN;
+            long dateMillis = FIRST_DATE_MILLIS + i * MILLIS_BETWEEN_FLIPS;
+            history.add(new FlipHistoryEntry(childId, sides[i % sides.length], i % 2 == 0, dateMillis));
+        }
+
+        return history;
+    }
+
+    private static int countEntries(List<FlipHistoryEntry> history, long childId) {
+        int count = 0;
+        for(FlipHistoryEntry entry : history) {
+            if(entry.getChildId() == childId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // PrefsManager only checks that it was given one; the model itself is kept in the StorageBackend
+    private static SharedPreferences makeSharedPrefs() {
+        return (SharedPreferences) Proxy.newProxyInstance(SharedPreferences.class.getClassLoader(),
+                new Class<?>[] {SharedPreferences.class}, (proxy, method, args) -> null);
+    }
+
+    /**
+     * MemoryStorageBackend keeps everything in memory, starting with the given flip history
+     */
+    private static class MemoryStorageBackend implements StorageBackend {
+        private final FlipHistoryStore flipHistoryStore;
+
+        MemoryStorageBackend(FlipHistoryStore flipHistoryStore) {
+            this.flipHistoryStore = flipHistoryStore;
+        }
+
+        @Override
+        public String getString(String key) {
+            return null;
+        }
+
+        @Override
+        public void putString(String key, String json) {
+            // nothing is read back
+        }
+
+        @Override
+        public List<String> getRecords(String table) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void putRecord(String table, long id, String json) {
+            // nothing is read back
+        }
+
+        @Override
+        public void removeRecord(String table, long id) {
+            // nothing is read back
+        }
+
+        @Override
+        public FlipHistoryStore getFlipHistoryStore() {
+            return flipHistoryStore;
+        }
+    }
+
+    /**
+     * MemoryFlipHistoryStore restores the given history and records the removal it is told about
+     */
+    private static class MemoryFlipHistoryStore implements FlipHistoryStore {
+        private final List<FlipHistoryEntry> entries;
+        private final CountDownLatch removed = new CountDownLatch(1);
+        private volatile long removedChildId = Child.NONE;
+        private volatile int numEntriesRemoved;
+
+        MemoryFlipHistoryStore(List<FlipHistoryEntry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public List<FlipHistoryEntry> restore() {
+            return new ArrayList<>(entries);
+        }
+
+        @Override
+        public void append(FlipHistoryEntry entry) {
+            // no flips are made
+        }
+
+        @Override
+        public void removeChild(long childId, int numEntriesRemoved) {
+            this.removedChildId = childId;
+            this.numEntriesRemoved = numEntriesRemoved;
+            removed.countDown();
+        }
+
+        @Override
+        public void compactIfNeeded() {
+            // the entries are never written
+        }
+
+        @Override
+        public void replaceAll(List<FlipHistoryEntry> entries) {
+            // there is no legacy history to migrate
+        }
+    }
+}